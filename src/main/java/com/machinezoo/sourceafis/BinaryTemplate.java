@@ -0,0 +1,176 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.nio.*;
+
+class BinaryTemplate {
+	// "SAFB" little-endian
+	static final int magic = 0x42464153;
+	static final int version = 2;
+	/*
+	 * 모든 값은 little-endian이고 배열은 크기가 큰 타입부터 배치해서 alignment를 유지한다.
+	 *
+	 * 0   int32        magic
+	 * 4   uint8        version
+	 * 5   uint8        flags (bit 0 = edge table present)
+	 * 6   uint16       reserved
+	 * 8   int32        width
+	 * 12  int32        height
+	 * 16  int32        minutia count (n)
+	 * 20  int32        edge count (m), zero without edge table
+	 * 24  float64[n]   direction
+	 *     uint16[n]    x
+	 *     uint16[n]    y
+	 *     bit[n]       type (0 = ending, 1 = bifurcation), LSB first
+	 *
+	 * edge table, 8-byte aligned, only if flag bit 0 is set
+	 *     float64[m]   reference angle
+	 *     float64[m]   neighbor angle
+	 *     int32[n+1]   start of every minutia's star (edges are sorted by reference minutia)
+	 *     int32[m]     neighbor
+	 *     uint16[m]    length
+	 */
+	static final int headerSize = 24;
+	static int directionOffset(int count) {
+		return headerSize;
+	}
+	static int xOffset(int count) {
+		return directionOffset(count) + 8 * count;
+	}
+	static int yOffset(int count) {
+		return xOffset(count) + 2 * count;
+	}
+	static int typeOffset(int count) {
+		return yOffset(count) + 2 * count;
+	}
+	static final int edgeTableFlag = 1;
+	static int edgeTableOffset(int count) {
+		return (typeOffset(count) + (count + 7) / 8 + 7) & ~7;
+	}
+	static int referenceAngleOffset(int count, int edges) {
+		return edgeTableOffset(count);
+	}
+	static int neighborAngleOffset(int count, int edges) {
+		return referenceAngleOffset(count, edges) + 8 * edges;
+	}
+	static int starOffset(int count, int edges) {
+		return neighborAngleOffset(count, edges) + 8 * edges;
+	}
+	static int neighborOffset(int count, int edges) {
+		return starOffset(count, edges) + 4 * (count + 1);
+	}
+	static int lengthOffset(int count, int edges) {
+		return neighborOffset(count, edges) + 4 * edges;
+	}
+	// edge 하나가 차지하는 byte 수. 크기를 계산하기 전에 int overflow를 막는 데 쓴다.
+	static final int edgeSize = 8 + 8 + 4 + 2;
+	static int size(int count) {
+		return typeOffset(count) + (count + 7) / 8;
+	}
+	static int size(int count, int edges) {
+		return lengthOffset(count, edges) + 2 * edges;
+	}
+	// template이 length byte 안에 들어가는지. 손상된 count와 edges로 크기를 계산하면 int overflow가 나므로 범위를 먼저 본다.
+	static boolean fits(int count, int length) {
+		return count >= 0 && count <= (length - headerSize) / 12 && size(count) <= length;
+	}
+	static boolean fits(int count, int edges, int length) {
+		return fits(count, length) && edges >= 0 && edges <= (length - edgeTableOffset(count)) / edgeSize && size(count, edges) <= length;
+	}
+	static byte[] serialize(Cell size, Minutia[] minutiae, NeighborEdge[][] stars) {
+		int count = minutiae.length;
+		int edges = 0;
+		if (stars != null)
+			for (NeighborEdge[] star : stars)
+				edges += star.length;
+		ByteBuffer buffer = ByteBuffer.allocate(stars != null ? size(count, edges) : size(count)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0, magic);
+		buffer.put(4, (byte)version);
+		buffer.put(5, (byte)(stars != null ? edgeTableFlag : 0));
+		buffer.putInt(8, size.x);
+		buffer.putInt(12, size.y);
+		buffer.putInt(16, count);
+		buffer.putInt(20, edges);
+		for (int i = 0; i < count; ++i) {
+			Minutia minutia = minutiae[i];
+			if (minutia.position.x < 0 || minutia.position.y < 0 || minutia.position.x > 0xffff || minutia.position.y > 0xffff)
+				throw new IllegalStateException("Minutia position is out of range of the binary template format");
+			buffer.putDouble(directionOffset(count) + 8 * i, minutia.direction);
+			buffer.putShort(xOffset(count) + 2 * i, (short)minutia.position.x);
+			buffer.putShort(yOffset(count) + 2 * i, (short)minutia.position.y);
+			if (minutia.type == MinutiaType.BIFURCATION) {
+				int at = typeOffset(count) + i / 8;
+				buffer.put(at, (byte)(buffer.get(at) | 1 << (i % 8)));
+			}
+		}
+		if (stars != null) {
+			int edge = 0;
+			for (int reference = 0; reference < count; ++reference) {
+				buffer.putInt(starOffset(count, edges) + 4 * reference, edge);
+				for (NeighborEdge neighbor : stars[reference]) {
+					if (neighbor.length > 0xffff)
+						throw new IllegalStateException("Edge length is out of range of the binary template format");
+					buffer.putDouble(referenceAngleOffset(count, edges) + 8 * edge, neighbor.referenceAngle);
+					buffer.putDouble(neighborAngleOffset(count, edges) + 8 * edge, neighbor.neighborAngle);
+					buffer.putShort(lengthOffset(count, edges) + 2 * edge, (short)neighbor.length);
+					buffer.putInt(neighborOffset(count, edges) + 4 * edge, neighbor.neighbor);
+					++edge;
+				}
+			}
+			buffer.putInt(starOffset(count, edges) + 4 * count, edge);
+		}
+		return buffer.array();
+	}
+	static void deserialize(ByteBuffer serialized, TemplateBuilder builder) {
+		ByteBuffer buffer = serialized.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.remaining() < headerSize || buffer.getInt(0) != magic)
+			throw new IllegalArgumentException("This is not a binary SourceAFIS template");
+		int flags = buffer.get(5);
+		if (buffer.get(4) != version || (flags & ~edgeTableFlag) != 0)
+			throw new IllegalArgumentException("Unsupported version of binary SourceAFIS template");
+		int count = buffer.getInt(16);
+		int edges = buffer.getInt(20);
+		if (!fits(count, buffer.remaining()))
+			throw new IllegalArgumentException("Truncated binary SourceAFIS template");
+		boolean hasEdges = (flags & edgeTableFlag) != 0;
+		if (hasEdges && !fits(count, edges, buffer.remaining()))
+			throw new IllegalArgumentException("Truncated binary SourceAFIS template");
+		builder.size = new Cell(buffer.getInt(8), buffer.getInt(12));
+		builder.minutiae = new Minutia[count];
+		for (int i = 0; i < count; ++i) {
+			boolean bifurcation = (buffer.get(typeOffset(count) + i / 8) & 1 << (i % 8)) != 0;
+			builder.minutiae[i] = new Minutia(
+				new Cell(buffer.getShort(xOffset(count) + 2 * i) & 0xffff, buffer.getShort(yOffset(count) + 2 * i) & 0xffff),
+				buffer.getDouble(directionOffset(count) + 8 * i),
+				bifurcation ? MinutiaType.BIFURCATION : MinutiaType.ENDING);
+		}
+		if (hasEdges) {
+			// star는 0에서 시작해서 edges에서 끝나야 하고 줄어들면 안 된다. 그렇지 않으면 star가 겹치거나 edge가 남는다.
+			int[] stars = new int[count + 1];
+			for (int i = 0; i <= count; ++i) {
+				stars[i] = buffer.getInt(starOffset(count, edges) + 4 * i);
+				if (i == 0 ? stars[i] != 0 : stars[i] < stars[i - 1])
+					throw new IllegalArgumentException("Corrupted edge table in binary SourceAFIS template");
+			}
+			if (stars[count] != edges)
+				throw new IllegalArgumentException("Corrupted edge table in binary SourceAFIS template");
+			builder.edges = new NeighborEdge[count][];
+			for (int reference = 0; reference < count; ++reference) {
+				int start = stars[reference];
+				int end = stars[reference + 1];
+				NeighborEdge[] star = builder.edges[reference] = new NeighborEdge[end - start];
+				for (int edge = start; edge < end; ++edge) {
+					int neighbor = buffer.getInt(neighborOffset(count, edges) + 4 * edge);
+					if (neighbor < 0 || neighbor >= count || neighbor == reference)
+						throw new IllegalArgumentException("Corrupted edge table in binary SourceAFIS template");
+					star[edge - start] = new NeighborEdge(
+						neighbor,
+						buffer.getShort(lengthOffset(count, edges) + 2 * edge) & 0xffff,
+						buffer.getDouble(referenceAngleOffset(count, edges) + 8 * edge),
+						buffer.getDouble(neighborAngleOffset(count, edges) + 8 * edge));
+				}
+			}
+		}
+		serialized.position(serialized.position() + (hasEdges ? size(count, edges) : size(count)));
+	}
+}
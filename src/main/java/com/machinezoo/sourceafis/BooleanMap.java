@@ -6,25 +6,30 @@ import java.nio.*;
 class BooleanMap {
 	final int width;
 	final int height;
-	private final boolean[] array;
+	// 픽셀 하나가 bit 하나. 행마다 word 경계에서 시작하므로 다른 행을 쓰는 thread끼리 같은 word를 건드리지 않는다.
+	// 행 끝의 남는 bit는 항상 0이다. word 단위 연산은 이것에 기대어 경계 밖을 false로 읽는다.
+	private final int stride;
+	private final long tail;
+	private final long[] words;
 	BooleanMap(int width, int height) {
 		this.width = width;
 		this.height = height;
-		array = new boolean[width * height];
+		stride = (width + 63) >>> 6;
+		tail = (width & 63) == 0 ? -1L : (1L << width) - 1;
+		words = new long[stride * height];
 	}
 	BooleanMap(Cell size) {
 		this(size.x, size.y);
 	}
 	BooleanMap(BooleanMap other) {
 		this(other.size());
-		for (int i = 0; i < array.length; ++i)
-			array[i] = other.array[i];
+		System.arraycopy(other.words, 0, words, 0, words.length);
 	}
 	Cell size() {
 		return new Cell(width, height);
 	}
 	boolean get(int x, int y) {
-		return array[offset(x, y)];
+		return (words[offset(x, y)] >>> x & 1) != 0;
 	}
 	boolean get(Cell at) {
 		return get(at.x, at.y);
@@ -32,26 +37,70 @@ class BooleanMap {
 	boolean get(int x, int y, boolean fallback) {
 		if (x < 0 || y < 0 || x >= width || y >= height)
 			return fallback;
-		return array[offset(x, y)];
+		return get(x, y);
 	}
 	boolean get(Cell at, boolean fallback) {
 		return get(at.x, at.y, fallback);
 	}
 	void set(int x, int y, boolean value) {
-		array[offset(x, y)] = value;
+		if (value)
+			words[offset(x, y)] |= 1L << x;
+		else
+			words[offset(x, y)] &= ~(1L << x);
 	}
 	void set(Cell at, boolean value) {
 		set(at.x, at.y, value);
 	}
+	// 한 행을 이루는 word 수
+	int stride() {
+		return stride;
+	}
+	// 행 y의 index번째 word. x = 64 * index + bit 픽셀이 bit번째 bit에 있다. 맵 밖은 0이다.
+	long word(int y, int index) {
+		if (y < 0 || y >= height || index < 0 || index >= stride)
+			return 0;
+		return words[y * stride + index];
+	}
+	// word(y, index)와 같되 모든 픽셀을 x + dx에서 읽는다. 맵 밖은 0이다.
+	long shifted(int y, int index, int dx) {
+		int start = (index << 6) + dx;
+		int bit = start & 63;
+		long low = word(y, start >> 6) >>> bit;
+		return bit == 0 ? low : low | word(y, (start >> 6) + 1) << 64 - bit;
+	}
+	void setWord(int y, int index, long value) {
+		words[y * stride + index] = index == stride - 1 ? value & tail : value;
+	}
+	// 행 y의 [start, end) 픽셀을 true로 설정
+	void fill(int y, int start, int end) {
+		int row = y * stride;
+		for (int index = start >>> 6; index << 6 < end; ++index) {
+			long bits = -1L;
+			if (index == start >>> 6)
+				bits &= -1L << start;
+			if (end - (index << 6) < 64)
+				bits &= (1L << end) - 1;
+			words[row + index] |= bits;
+		}
+	}
 	void invert() {
-		for (int i = 0; i < array.length; ++i)
-			array[i] = !array[i];
+		for (int i = 0; i < words.length; ++i)
+			words[i] = ~words[i];
+		for (int y = 0; stride > 0 && y < height; ++y)
+			words[y * stride + stride - 1] &= tail;
 	}
 	void merge(BooleanMap other) {
 		if (other.width != width || other.height != height)
 			throw new IllegalArgumentException();
-		for (int i = 0; i < array.length; ++i)
-			array[i] |= other.array[i];
+		for (int i = 0; i < words.length; ++i)
+			words[i] |= other.words[i];
+	}
+	// other에서 true인 픽셀을 false로 설정
+	void subtract(BooleanMap other) {
+		if (other.width != width || other.height != height)
+			throw new IllegalArgumentException();
+		for (int i = 0; i < words.length; ++i)
+			words[i] &= ~other.words[i];
 	}
 	ByteBuffer serialize() {
 		ByteBuffer buffer = ByteBuffer.allocate(size().area());
@@ -70,6 +119,6 @@ class BooleanMap {
 		return info;
 	}
 	private int offset(int x, int y) {
-		return y * width + x;
+		return y * stride + (x >>> 6);
 	}
 }
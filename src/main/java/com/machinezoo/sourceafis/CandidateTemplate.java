@@ -0,0 +1,19 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+interface CandidateTemplate {
+	int minutiaCount();
+	int minutiaX(int minutia);
+	int minutiaY(int minutia);
+	double minutiaDirection(int minutia);
+	MinutiaType minutiaType(int minutia);
+	// 각 minutia의 star(이웃 edge들)는 [starStart, starEnd) 범위의 edge index를 가진다.
+	int starStart(int minutia);
+	int starEnd(int minutia);
+	int edgeNeighbor(int edge);
+	int edgeLength(int edge);
+	double edgeReferenceAngle(int edge);
+	double edgeNeighborAngle(int edge);
+	// root 탐색에 쓰는 edge 목록
+	RootEdges rootEdges();
+}
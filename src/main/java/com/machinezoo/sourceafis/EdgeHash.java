@@ -0,0 +1,127 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.io.*;
+import java.nio.*;
+import com.machinezoo.noexception.*;
+import gnu.trove.list.array.*;
+
+class EdgeHash {
+	static final EdgeHash empty = new EdgeHash(ImmutableTemplate.empty);
+	// 최대 3개의 길이 bin과 각 각도마다 최대 4개의 bin
+	static final int maxCoverage = 3 * 4 * 4;
+	// false이면 edge마다 자기 모양의 key 하나만 저장한다. 대신 검색하는 쪽에서 오차범위의 모든 key를 조회해야 한다.
+	final boolean coverage;
+	// 정렬된 hash key와 CSR 형식의 bucket.
+	// key i의 bucket은 postings[offsets[i]] ~ postings[offsets[i + 1] - 1]의 edge들이다.
+	final int[] keys;
+	final int[] offsets;
+	final int[] postings;
+	// probe의 모든 minutia pair(edge)의 속성. edge 번호로 index한다.
+	final int[] references;
+	final int[] neighbors;
+	final int[] lengths;
+	final double[] referenceAngles;
+	final double[] neighborAngles;
+	private final HashBuckets buckets;
+	EdgeHash(ImmutableTemplate template) {
+		this(template, true);
+	}
+	EdgeHash(ImmutableTemplate template, boolean coverage) {
+		this.coverage = coverage;
+		int count = template.minutiaCount();
+		int edges = count * Math.max(0, count - 1);
+		references = new int[edges];
+		neighbors = new int[edges];
+		lengths = new int[edges];
+		referenceAngles = new double[edges];
+		neighborAngles = new double[edges];
+		TIntArrayList hashes = new TIntArrayList();
+		TIntArrayList serials = new TIntArrayList();
+		// 모든 edge가 같이 쓰는 coverage key 버퍼
+		int[] scratch = new int[maxCoverage];
+		int edge = 0;
+		for (int reference = 0; reference < count; ++reference)
+			for (int neighbor = 0; neighbor < count; ++neighbor)
+				if (reference != neighbor) {
+					EdgeShape shape = new EdgeShape(template, reference, neighbor);
+					references[edge] = reference;
+					neighbors[edge] = neighbor;
+					lengths[edge] = shape.length;
+					referenceAngles[edge] = shape.referenceAngle;
+					neighborAngles[edge] = shape.neighborAngle;
+					if (coverage) {
+						// Edge의 오차범위를 모두 커버하는 데이터에 대해 해시를 생성한다.
+						addCoverage(shape, edge, scratch, hashes, serials);
+					} else {
+						hashes.add(hashShape(shape.length, shape.referenceAngle, shape.neighborAngle));
+						serials.add(edge);
+					}
+					++edge;
+				}
+		// hash 기준으로 묶는다. 각 bucket 안에서 edge가 추가된 순서가 유지된다.
+		buckets = new HashBuckets(hashes, serials);
+		keys = buckets.keys;
+		offsets = buckets.offsets;
+		postings = buckets.postings;
+	}
+	int find(int key) {
+		return buckets.find(key);
+	}
+	static int hashShape(int length, double referenceAngle, double neighborAngle) {
+		// EdgeShape를 오차를 배제한 값으로 단일 정수로 생성함
+		// 양자화오차의 가능성이 남음
+		int lengthBin = length / Parameters.maxDistanceError;
+		int referenceAngleBin = (int)(referenceAngle / Parameters.maxAngleError);
+		int neighborAngleBin = (int)(neighborAngle / Parameters.maxAngleError);
+		return (referenceAngleBin << 24) + (neighborAngleBin << 16) + lengthBin;
+	}
+	static void addCoverage(EdgeShape edge, int serial, int[] keys, TIntArrayList hashes, TIntArrayList serials) {
+		// 오차범위를 고려하여 모든 가능한 해시값을 생성하여 edge 번호와 함께 추가한다.
+		// keys는 호출하는 쪽이 재사용하는 maxCoverage 크기의 버퍼다.
+		int count = coverage(edge.length, edge.referenceAngle, edge.neighborAngle, keys);
+		for (int i = 0; i < count; ++i) {
+			hashes.add(keys[i]);
+			serials.add(serial);
+		}
+	}
+	static int coverage(int length, double referenceAngle, double neighborAngle, int[] keys) {
+		// 오차범위 안의 모든 hash key를 keys에 쓰고 그 개수를 리턴한다.
+		int minLengthBin = (length - Parameters.maxDistanceError) / Parameters.maxDistanceError;
+		int maxLengthBin = (length + Parameters.maxDistanceError) / Parameters.maxDistanceError;
+		int angleBins = (int)Math.ceil(2 * Math.PI / Parameters.maxAngleError);
+		int minReferenceBin = (int)(Angle.difference(referenceAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
+		int maxReferenceBin = (int)(Angle.add(referenceAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
+		int endReferenceBin = (maxReferenceBin + 1) % angleBins;
+		int minNeighborBin = (int)(Angle.difference(neighborAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
+		int maxNeighborBin = (int)(Angle.add(neighborAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
+		int endNeighborBin = (maxNeighborBin + 1) % angleBins;
+		int count = 0;
+		for (int lengthBin = minLengthBin; lengthBin <= maxLengthBin; ++lengthBin)
+			for (int referenceBin = minReferenceBin; referenceBin != endReferenceBin; referenceBin = (referenceBin + 1) % angleBins)
+				for (int neighborBin = minNeighborBin; neighborBin != endNeighborBin; neighborBin = (neighborBin + 1) % angleBins)
+					keys[count++] = (referenceBin << 24) + (neighborBin << 16) + lengthBin;
+		return count;
+	}
+	ByteBuffer serialize() {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream formatter = new DataOutputStream(buffer);
+		Exceptions.sneak().run(() -> {
+			formatter.writeInt(keys.length);
+			for (int i = 0; i < keys.length; ++i) {
+				formatter.writeInt(keys[i]);
+				formatter.writeInt(offsets[i + 1] - offsets[i]);
+				for (int posting = offsets[i]; posting < offsets[i + 1]; ++posting) {
+					int edge = postings[posting];
+					formatter.writeInt(references[edge]);
+					formatter.writeInt(neighbors[edge]);
+					formatter.writeInt(lengths[edge]);
+					formatter.writeDouble(referenceAngles[edge]);
+					formatter.writeDouble(neighborAngles[edge]);
+				}
+			}
+			formatter.close();
+		});
+		return ByteBuffer.wrap(buffer.toByteArray());
+	}
+}
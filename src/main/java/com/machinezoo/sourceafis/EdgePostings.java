@@ -0,0 +1,82 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+import gnu.trove.set.hash.*;
+
+// gallery 전체의 edge inverted index. 만든 뒤에는 바뀌지 않으므로 여러 thread가 함께 검색할 수 있다.
+class EdgePostings {
+	static final EdgePostings empty = new EdgePostings(new int[0], new long[] { 0 }, new IntSegments(0, 1), new IntSegments(0, 1));
+	// 정렬된 edge key. key i의 posting은 offsets[i] ~ offsets[i + 1] - 1이고 그 안에서 template 순서로 정렬되어 있다.
+	final int[] keys;
+	final long[] offsets;
+	// posting마다 template 번호와 minutia pair. pair는 reference, neighbor minutia 번호와 reference minutia의 양자화된 방향이다.
+	final IntSegments templates;
+	final IntSegments pairs;
+	private final int[] table;
+	private EdgePostings(int[] keys, long[] offsets, IntSegments templates, IntSegments pairs) {
+		this.keys = keys;
+		this.offsets = offsets;
+		this.templates = templates;
+		this.pairs = pairs;
+		table = HashBuckets.table(keys);
+	}
+	static int pair(int reference, int neighbor, byte direction) {
+		return reference << 20 | neighbor << 8 | direction & 0xff;
+	}
+	static int direction(int pair) {
+		return pair & 0xff;
+	}
+	// key가 없으면 -1
+	int find(int key) {
+		return HashBuckets.find(table, keys, key);
+	}
+	// key의 posting 중 template 번호가 template 이상인 첫 posting
+	long seek(int key, int template) {
+		long low = offsets[key];
+		long high = offsets[key + 1];
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (templates.get(middle) < template)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+	// 기존 index에 새로 추가된 edge를 합쳐서 새 index를 만든다. 새 edge의 template 번호는 기존 template보다 커야 한다.
+	EdgePostings merge(IntSegments addedKeys, IntSegments addedTemplates, IntSegments addedPairs, int bits) {
+		TIntHashSet unique = new TIntHashSet(keys);
+		for (long i = 0; i < addedKeys.size(); ++i)
+			unique.add(addedKeys.get(i));
+		int[] merged = unique.toArray();
+		Arrays.sort(merged);
+		int[] mergedTable = HashBuckets.table(merged);
+		// key별 posting 수를 세어 시작 위치를 구한다(counting sort).
+		long[] starts = new long[merged.length + 1];
+		for (int key = 0; key < keys.length; ++key)
+			starts[HashBuckets.find(mergedTable, merged, keys[key]) + 1] += offsets[key + 1] - offsets[key];
+		for (long i = 0; i < addedKeys.size(); ++i)
+			++starts[HashBuckets.find(mergedTable, merged, addedKeys.get(i)) + 1];
+		for (int i = 0; i < merged.length; ++i)
+			starts[i + 1] += starts[i];
+		long total = starts[merged.length];
+		IntSegments mergedTemplates = new IntSegments(total, bits);
+		IntSegments mergedPairs = new IntSegments(total, bits);
+		long[] next = Arrays.copyOf(starts, merged.length);
+		// 기존 posting이 앞에 오므로 key마다 template 순서가 유지된다.
+		for (int key = 0; key < keys.length; ++key) {
+			int target = HashBuckets.find(mergedTable, merged, keys[key]);
+			for (long posting = offsets[key]; posting < offsets[key + 1]; ++posting) {
+				mergedTemplates.set(next[target], templates.get(posting));
+				mergedPairs.set(next[target]++, pairs.get(posting));
+			}
+		}
+		for (long i = 0; i < addedKeys.size(); ++i) {
+			int target = HashBuckets.find(mergedTable, merged, addedKeys.get(i));
+			mergedTemplates.set(next[target], addedTemplates.get(i));
+			mergedPairs.set(next[target]++, addedPairs.get(i));
+		}
+		return new EdgePostings(merged, starts, mergedTemplates, mergedPairs);
+	}
+}
@@ -28,17 +28,41 @@ class EdgeShape {
 		this.neighborAngle = neighborAngle;
 	}
 	EdgeShape(Minutia reference, Minutia neighbor) {
+		this(neighbor.position.x - reference.position.x, neighbor.position.y - reference.position.y, reference.direction, neighbor.direction);
+	}
+	EdgeShape(CandidateTemplate template, int reference, int neighbor) {
+		this(
+			template.minutiaX(neighbor) - template.minutiaX(reference),
+			template.minutiaY(neighbor) - template.minutiaY(reference),
+			template.minutiaDirection(reference),
+			template.minutiaDirection(neighbor));
+	}
+	private EdgeShape(int vectorX, int vectorY, double referenceDirection, double neighborDirection) {
 		// 두개의 미누셔간의 거리를 계산
 		// 두개의 미누셔의 방향을 에지벡터로 보정함??
 		// 이렇게 각도를 보정하면 지문의 회전속성을 완전히 제거 가능해보임
-
+		length = length(vectorX, vectorY);
+		double angle = angle(vectorX, vectorY);
+		referenceAngle = Angle.difference(referenceDirection, angle);
+		neighborAngle = Angle.difference(neighborDirection, Angle.opposite(angle));
+	}
+	static int length(int vectorX, int vectorY) {
+		// 거리 table은 x, y에 대해 대칭이므로 사분면 보정 없이 절대값만 쓴다.
+		int x = Math.abs(vectorX);
+		int y = Math.abs(vectorY);
+		// 벡터의 숫자크기를 알아내서 8(polarCacheBits)을 빼둔다
+		int shift = 32 - Integer.numberOfLeadingZeros((x | y) >>> polarCacheBits);
+		// 미리 계산된 테이블에서 계산값을 긁어와서 원래 스케일로 복원한다.
+		// 약간의 오차가 있지만 특별히 문제가 될 정도는 아님
+		return polarDistance[(y >> shift) * polarCacheRadius + (x >> shift)] << shift;
+	}
+	static double angle(int vectorX, int vectorY) {
 		// neighbor -> reference로의 벡터
-		Cell vector = neighbor.position.minus(reference.position);
 		// vector는 무조건 1사분면에 위치시키며
 		// quadrant를 통해 실제 어느 사분면에 있어야 되는지 표시한다.
 		double quadrant = 0;
-		int x = vector.x;
-		int y = vector.y;
+		int x = vectorX;
+		int y = vectorY;
 		if (y < 0) {
 			// reference가 아래에 있으면
 			// 벡터의 방향을 바꿈
@@ -54,18 +78,10 @@ class EdgeShape {
 			y = tmp;
 			quadrant += Angle.halfPI;
 		}
-		// 벡터의 숫자크기를 알아내서 8(polarCacheBits)을 빼둔다
 		int shift = 32 - Integer.numberOfLeadingZeros((x | y) >>> polarCacheBits);
-		// x,y를 shift만큼하면 데이터는 무조건 1~255사이의 값이 된다.
 		// offset은 16bit값
 		int offset = (y >> shift) * polarCacheRadius + (x >> shift);
-		// 미리 계산된 테이블에서 계산값을 긁어와서 원래 스케일로 복원한다.
-		// 약간의 오차가 있지만 특별히 문제가 될 정도는 아님
-		length = polarDistance[offset] << shift;
 		// 각도는 테이블에서 읽어서 각 사분면으로 회전하여 사용
-		double angle = polarAngle[offset] + quadrant;
-
-		referenceAngle = Angle.difference(reference.direction, angle);
-		neighborAngle = Angle.difference(neighbor.direction, Angle.opposite(angle));
+		return polarAngle[offset] + quadrant;
 	}
 }
@@ -0,0 +1,141 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Two-stage cascade that speeds up search of galleries dominated by non-matching candidates.
+ * In the first stage, every candidate is matched using only a few of the best alignments (roots).
+ * Candidates that score below pre-threshold in the first stage are rejected.
+ * Only candidates that pass the first stage are matched fully in the second stage.
+ * <p>
+ * Cascade is enabled by passing it to {@link FingerprintMatcher#cascade(FingerprintCascade)}.
+ * It then applies to all search methods of the matcher, for example {@link FingerprintMatcher#search(java.util.Collection, int, double)}.
+ * Candidates that pass the first stage receive the same score as with {@link FingerprintMatcher#match(FingerprintTemplate)}.
+ * Some true matches can be rejected in the first stage, especially with high pre-threshold or small root budget.
+ * <p>
+ * {@code FingerprintCascade} counts candidates processed by each stage.
+ * Counters can be used to tune root budget and pre-threshold for particular gallery.
+ * Counters are thread-safe and single {@code FingerprintCascade} can be used by many threads and matchers concurrently.
+ *
+ * @see FingerprintMatcher#cascade(FingerprintCascade)
+ */
+public class FingerprintCascade {
+	private volatile int roots = 20;
+	private volatile double threshold = 10;
+	// passed는 screened - pruned - rejected와 같지만 따로 센다. 합계들을 따로 읽으면 그 사이에 다른 thread가 셀 수 있다.
+	private final LongAdder screened = new LongAdder();
+	private final LongAdder pruned = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder passed = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	/**
+	 * Instantiate cascade with default configuration.
+	 * Default root budget is 20 and default pre-threshold is 10.
+	 */
+	public FingerprintCascade() {
+	}
+	/**
+	 * Set number of roots (initial minutia pairs) tried in the first stage.
+	 * Smaller budget makes the first stage faster, but less accurate.
+	 * Default budget is 20.
+	 *
+	 * @param budget
+	 *            number of roots tried in the first stage
+	 * @return {@code this} (fluent method)
+	 * @throws IllegalArgumentException
+	 *             if {@code budget} is not positive
+	 */
+	public FingerprintCascade roots(int budget) {
+		if (budget <= 0)
+			throw new IllegalArgumentException("Root budget must be positive");
+		roots = budget;
+		return this;
+	}
+	/**
+	 * Set minimum score that candidate must reach in the first stage to pass to the second stage.
+	 * Pre-threshold should be lower than search threshold, because the first stage underestimates the score.
+	 * Default pre-threshold is 10.
+	 *
+	 * @param threshold
+	 *            minimum first stage score
+	 * @return {@code this} (fluent method)
+	 */
+	public FingerprintCascade threshold(double threshold) {
+		this.threshold = threshold;
+		return this;
+	}
+	/**
+	 * Get number of candidates that entered the first stage.
+	 *
+	 * @return number of candidates screened by the first stage
+	 */
+	public long screened() {
+		return screened.sum();
+	}
+	/**
+	 * Get number of candidates skipped without matching, because they cannot score high enough to enter search results.
+	 * This happens when search result limit is small and the results are already filled with high scoring candidates.
+	 * Skipped candidates are neither rejected nor passed by the first stage.
+	 *
+	 * @return number of candidates skipped by the search
+	 */
+	public long pruned() {
+		return pruned.sum();
+	}
+	/**
+	 * Get number of candidates rejected by the first stage.
+	 *
+	 * @return number of candidates that were not passed to the second stage
+	 */
+	public long rejected() {
+		return rejected.sum();
+	}
+	/**
+	 * Get number of candidates that passed the first stage and were fully matched in the second stage.
+	 *
+	 * @return number of candidates that entered the second stage
+	 */
+	public long passed() {
+		return passed.sum();
+	}
+	/**
+	 * Get number of candidates that reached search threshold in the second stage.
+	 *
+	 * @return number of candidates that passed both stages
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+	/**
+	 * Reset all counters to zero.
+	 *
+	 * @return {@code this} (fluent method)
+	 */
+	public FingerprintCascade reset() {
+		screened.reset();
+		pruned.reset();
+		rejected.reset();
+		passed.reset();
+		hits.reset();
+		return this;
+	}
+	int budget() {
+		return roots;
+	}
+	double screen() {
+		return threshold;
+	}
+	void record(boolean pruned, boolean rejected, boolean hit) {
+		screened.increment();
+		if (pruned)
+			this.pruned.increment();
+		else if (rejected)
+			this.rejected.increment();
+		else {
+			passed.increment();
+			if (hit)
+				hits.increment();
+		}
+	}
+}
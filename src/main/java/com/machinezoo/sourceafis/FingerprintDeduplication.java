@@ -0,0 +1,217 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import com.machinezoo.noexception.*;
+
+/**
+ * Deduplication job that finds all pairs of matching fingerprints in a collection of templates.
+ * Every pair of templates is matched once, with the template at lower position serving as the probe.
+ * Every template is indexed (see {@link FingerprintMatcher#index(FingerprintTemplate)}) only once.
+ * <p>
+ * Collection is processed in blocks of rows. Probes of one block are indexed together
+ * and matched with all following templates in parallel on configured {@link Executor}.
+ * Pairs scoring at least {@link #threshold(double)} are passed to the output
+ * when the block completes, always on the thread that called {@link #run(Consumer)} and always in the same order.
+ * <p>
+ * Long jobs can be made resumable by configuring checkpoint file with {@link #checkpoint(Path)}.
+ * Progress is saved to the checkpoint file after every completed block.
+ * If the job is interrupted, for example by a crash, calling {@link #run(Consumer)} again on the same collection
+ * with the same threshold continues with the first unfinished block. Pairs from the interrupted block are reported again,
+ * so every matching pair is reported at least once.
+ * <p>
+ * This class is not thread-safe. Templates must not be modified while the job runs.
+ *
+ * @see FingerprintDuplicate
+ */
+public class FingerprintDeduplication {
+	// "SAFD"
+	private static final int magic = 0x53414644;
+	private static final int version = 2;
+	// block 하나는 blockSize개의 probe를 가진다. 한 번에 index된 probe만 메모리에 있으면 된다.
+	private static final int blockSize = 32;
+	private final List<FingerprintTemplate> templates;
+	private double threshold = 40;
+	private Path checkpoint;
+	private Executor executor = ForkJoinPool.commonPool();
+	/**
+	 * Create deduplication job over collection of templates.
+	 * Position of every template in {@code templates} identifies it in reported {@link FingerprintDuplicate} pairs.
+	 *
+	 * @param templates
+	 *            collection of fingerprint templates to deduplicate
+	 */
+	public FingerprintDeduplication(List<FingerprintTemplate> templates) {
+		this.templates = new ArrayList<>(templates);
+	}
+	/**
+	 * Set minimum score of reported pairs.
+	 * Default threshold is 40, which corresponds to FMR 0.01% (see {@link FingerprintMatcher#match(FingerprintTemplate)}).
+	 * Keep in mind that the number of false matches grows with square of collection size.
+	 *
+	 * @param threshold
+	 *            minimum similarity score of reported pairs
+	 * @return {@code this} (fluent method)
+	 */
+	public FingerprintDeduplication threshold(double threshold) {
+		this.threshold = threshold;
+		return this;
+	}
+	/**
+	 * Set file where progress of the job is saved.
+	 * If the file exists when {@link #run(Consumer)} is called, the job resumes from the saved progress.
+	 * The file must be created by a job over the same collection with the same threshold.
+	 * Checkpoint stores the threshold and a hash of minutiae of all templates,
+	 * so that checkpoint of a different job is rejected instead of silently producing inconsistent results.
+	 * By default, progress is not saved.
+	 *
+	 * @param file
+	 *            checkpoint file or {@code null} to disable checkpoints
+	 * @return {@code this} (fluent method)
+	 */
+	public FingerprintDeduplication checkpoint(Path file) {
+		checkpoint = file;
+		return this;
+	}
+	/**
+	 * Set executor that runs matching.
+	 * Default executor is {@link ForkJoinPool#commonPool()}.
+	 *
+	 * @param executor
+	 *            executor that will run the matching, {@link ForkJoinPool} is recommended
+	 * @return {@code this} (fluent method)
+	 */
+	public FingerprintDeduplication executor(Executor executor) {
+		this.executor = Objects.requireNonNull(executor);
+		return this;
+	}
+	/**
+	 * Run the deduplication job and report all matching pairs.
+	 * This method returns when all pairs are matched.
+	 * Output is called on the calling thread in deterministic order.
+	 *
+	 * @param output
+	 *            receives pairs of fingerprints scoring at least the threshold
+	 * @throws IllegalArgumentException
+	 *             if the checkpoint file is corrupted or it was created for different collection or with different threshold
+	 */
+	public void run(Consumer<FingerprintDuplicate> output) {
+		int count = templates.size();
+		int blocks = (count + blockSize - 1) / blockSize;
+		long hash = checkpoint != null ? hash() : 0;
+		for (int block = load(blocks, hash); block < blocks; ++block) {
+			int start = block * blockSize;
+			int end = Math.min(count, start + blockSize);
+			// block의 probe를 병렬로 index한다.
+			List<CompletableFuture<FingerprintMatcher>> indexing = new ArrayList<>();
+			for (int i = start; i < end; ++i) {
+				FingerprintTemplate template = templates.get(i);
+				indexing.add(CompletableFuture.supplyAsync(() -> new FingerprintMatcher().index(template), executor));
+			}
+			FingerprintMatcher[] probes = new FingerprintMatcher[end - start];
+			for (int i = 0; i < probes.length; ++i)
+				probes[i] = FingerprintMatcher.join(indexing.get(i));
+			// 자기 자신 이후의 열만 매칭하므로 대칭인 pair는 한 번만 계산된다.
+			List<CompletableFuture<List<FingerprintDuplicate>>> columns = new ArrayList<>();
+			for (int column = start; column < count; column += blockSize) {
+				int first = column;
+				int last = Math.min(count, column + blockSize);
+				columns.add(CompletableFuture.supplyAsync(() -> match(probes, start, first, last), executor));
+			}
+			for (CompletableFuture<List<FingerprintDuplicate>> future : columns)
+				for (FingerprintDuplicate duplicate : FingerprintMatcher.join(future))
+					output.accept(duplicate);
+			// 결과를 내보낸 뒤에 기록하므로 중단되어도 결과를 잃지 않는다.
+			save(block + 1, hash);
+		}
+	}
+	/**
+	 * Run the deduplication job and collect all matching pairs.
+	 * This is a convenience method that calls {@link #run(Consumer)} and collects reported pairs in a list.
+	 *
+	 * @return list of pairs of fingerprints scoring at least the threshold
+	 * @throws IllegalArgumentException
+	 *             if the checkpoint file is corrupted or it was created for different collection or with different threshold
+	 */
+	public List<FingerprintDuplicate> run() {
+		List<FingerprintDuplicate> duplicates = new ArrayList<>();
+		run(duplicates::add);
+		return duplicates;
+	}
+	private List<FingerprintDuplicate> match(FingerprintMatcher[] probes, int offset, int first, int last) {
+		List<FingerprintDuplicate> duplicates = new ArrayList<>();
+		FingerprintMatchSession session = new FingerprintMatchSession();
+		// probe의 edge hash가 크므로 probe를 바깥 루프에 둔다.
+		for (int i = 0; i < probes.length; ++i)
+			for (int j = Math.max(first, offset + i + 1); j < last; ++j) {
+				double score = probes[i].match(templates.get(j), session);
+				if (score >= threshold)
+					duplicates.add(new FingerprintDuplicate(offset + i, j, score));
+			}
+		return duplicates;
+	}
+	// checkpoint가 같은 collection에서 만들어졌는지 확인하는 hash. template 전체를 직렬화하지 않고 minutia만 훑는다.
+	private long hash() {
+		long hash = templates.size();
+		for (FingerprintTemplate template : templates) {
+			ImmutableTemplate immutable = template.immutable;
+			hash = mix(hash, immutable.minutiaCount());
+			for (int i = 0; i < immutable.minutiaCount(); ++i) {
+				hash = mix(hash, immutable.minutiaX(i));
+				hash = mix(hash, immutable.minutiaY(i));
+				hash = mix(hash, Double.doubleToLongBits(immutable.minutiaDirection(i)));
+				hash = mix(hash, immutable.minutiaType(i).ordinal());
+			}
+		}
+		return hash;
+	}
+	private static long mix(long hash, long value) {
+		return (hash ^ value) * 0x9e3779b97f4a7c15L;
+	}
+	private int load(int blocks, long hash) {
+		if (checkpoint == null || !Files.exists(checkpoint))
+			return 0;
+		return Exceptions.sneak().getAsInt(() -> {
+			try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+				if (input.readInt() != magic || input.readInt() != version)
+					throw new IllegalArgumentException("This is not a deduplication checkpoint file");
+				if (input.readInt() != templates.size() || input.readInt() != blockSize || input.readLong() != hash)
+					throw new IllegalArgumentException("Deduplication checkpoint was created for different collection");
+				if (Double.doubleToLongBits(input.readDouble()) != Double.doubleToLongBits(threshold))
+					throw new IllegalArgumentException("Deduplication checkpoint was created with different threshold");
+				int done = input.readInt();
+				if (done < 0 || done > blocks)
+					throw new IllegalArgumentException("Corrupted deduplication checkpoint file");
+				return done;
+			} catch (EOFException e) {
+				throw new IllegalArgumentException("Corrupted deduplication checkpoint file", e);
+			}
+		});
+	}
+	private void save(int done, long hash) {
+		if (checkpoint == null)
+			return;
+		Exceptions.sneak().run(() -> {
+			// 임시 파일에 쓰고 바꿔치기해서 기록 도중에 중단되어도 이전 checkpoint가 남게 한다.
+			Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+			try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				stream.writeInt(magic);
+				stream.writeInt(version);
+				stream.writeInt(templates.size());
+				stream.writeInt(blockSize);
+				stream.writeLong(hash);
+				stream.writeDouble(threshold);
+				stream.writeInt(done);
+			}
+			try {
+				Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+			}
+		});
+	}
+}
@@ -0,0 +1,51 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+/**
+ * Pair of matching fingerprints found by {@link FingerprintDeduplication}.
+ * Fingerprints are identified by their position in the deduplicated collection.
+ * Position of the first fingerprint is always lower than position of the second one.
+ *
+ * @see FingerprintDeduplication#run(java.util.function.Consumer)
+ */
+public class FingerprintDuplicate {
+	private final int first;
+	private final int second;
+	private final double score;
+	FingerprintDuplicate(int first, int second, double score) {
+		this.first = first;
+		this.second = second;
+		this.score = score;
+	}
+	/**
+	 * Get position of the first fingerprint of the pair in the deduplicated collection.
+	 * This fingerprint was used as the probe when computing {@link #score()}.
+	 *
+	 * @return zero-based position of the first fingerprint, lower than {@link #second()}
+	 */
+	public int first() {
+		return first;
+	}
+	/**
+	 * Get position of the second fingerprint of the pair in the deduplicated collection.
+	 * This fingerprint was used as the candidate when computing {@link #score()}.
+	 *
+	 * @return zero-based position of the second fingerprint, higher than {@link #first()}
+	 */
+	public int second() {
+		return second;
+	}
+	/**
+	 * Get similarity score between the two fingerprints.
+	 * This is the same score that would be returned by {@link FingerprintMatcher#match(FingerprintTemplate)}
+	 * with the first fingerprint as the probe and the second fingerprint as the candidate.
+	 *
+	 * @return similarity score between the two fingerprints
+	 */
+	public double score() {
+		return score;
+	}
+	@Override public String toString() {
+		return String.format("#%d <-> #%d @ %f", first, second, score);
+	}
+}
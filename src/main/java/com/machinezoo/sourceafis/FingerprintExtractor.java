@@ -0,0 +1,175 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import com.machinezoo.noexception.*;
+
+/**
+ * Batch feature extraction with bounded concurrency.
+ * It extracts fingerprint templates from long sequences of {@link FingerprintImage} in parallel on configured {@link Executor}.
+ * <p>
+ * Images are read from the input iterator on the calling thread only when there is room for another extraction.
+ * At most {@link #concurrency(int)} images are extracted at once regardless of the size of the executor,
+ * which bounds memory taken by decoded images and intermediate data structures of the extraction.
+ * Slow consumer of the output slows down reading of the input.
+ * <p>
+ * Templates can be obtained in the same order as the images with {@link #extract(Iterator)}
+ * or as soon as they are extracted with {@link #extract(Iterator, ObjIntConsumer)}.
+ * Every template is the same as the one produced by {@link FingerprintTemplate#create(byte[])}.
+ * <p>
+ * Configuration methods of this class are not thread-safe, but the extraction methods can be called concurrently
+ * once the extractor is configured.
+ *
+ * @see FingerprintImage
+ */
+public class FingerprintExtractor {
+	private Executor executor = ForkJoinPool.commonPool();
+	private int concurrency;
+	/**
+	 * Instantiate extractor with default configuration.
+	 * Extraction runs on {@link ForkJoinPool#commonPool()} with concurrency equal to the parallelism of the pool.
+	 */
+	public FingerprintExtractor() {
+	}
+	/**
+	 * Set executor that runs the extraction.
+	 * Default executor is {@link ForkJoinPool#commonPool()}.
+	 *
+	 * @param executor
+	 *            executor that will run the extraction, {@link ForkJoinPool} is recommended
+	 * @return {@code this} (fluent method)
+	 */
+	public FingerprintExtractor executor(Executor executor) {
+		this.executor = Objects.requireNonNull(executor);
+		return this;
+	}
+	/**
+	 * Set maximum number of images extracted at once.
+	 * Every running extraction takes memory proportional to the image size,
+	 * roughly 50 bytes per pixel of the image at 500dpi.
+	 * Default concurrency is the parallelism of the executor if it is {@link ForkJoinPool}
+	 * or the number of processors otherwise.
+	 *
+	 * @param concurrency
+	 *            maximum number of running extractions
+	 * @return {@code this} (fluent method)
+	 * @throws IllegalArgumentException
+	 *             if {@code concurrency} is not positive
+	 */
+	public FingerprintExtractor concurrency(int concurrency) {
+		if (concurrency <= 0)
+			throw new IllegalArgumentException("Concurrency must be positive");
+		this.concurrency = concurrency;
+		return this;
+	}
+	/**
+	 * Extract templates from a sequence of images and return them in the same order.
+	 * Extraction runs ahead of the consumer of the returned iterator, but only so far.
+	 * When the next template in order is slow to extract, up to several times {@link #concurrency(int)}
+	 * templates extracted from following images are kept until it is done.
+	 * <p>
+	 * Returned iterator is lazy. Images are read and extracted only when the iterator is used.
+	 * Exception thrown by extraction of some image, for example due to unsupported image format,
+	 * is rethrown by {@link Iterator#next()} that would return its template.
+	 *
+	 * @param images
+	 *            fingerprint images to extract
+	 * @return templates in the same order as {@code images}
+	 */
+	public Iterator<FingerprintTemplate> extract(Iterator<FingerprintImage> images) {
+		ExtractionQueue queue = new ExtractionQueue(images);
+		return new Iterator<FingerprintTemplate>() {
+			@Override public boolean hasNext() {
+				return queue.hasNext();
+			}
+			@Override public FingerprintTemplate next() {
+				return queue.next(true).template;
+			}
+		};
+	}
+	/**
+	 * Extract templates from a sequence of images and pass them to the output as soon as they are extracted.
+	 * Templates are reported in the order of completion together with the position of their image in the input.
+	 * Output is called on the calling thread. This method returns when all images are extracted.
+	 * Unlike {@link #extract(Iterator)}, slow extraction of one image does not hold back templates of other images.
+	 *
+	 * @param images
+	 *            fingerprint images to extract
+	 * @param output
+	 *            receives extracted templates with zero-based position of their image in {@code images}
+	 */
+	public void extract(Iterator<FingerprintImage> images, ObjIntConsumer<FingerprintTemplate> output) {
+		ExtractionQueue queue = new ExtractionQueue(images);
+		while (queue.hasNext()) {
+			Extraction extraction = queue.next(false);
+			output.accept(extraction.template, extraction.index);
+		}
+	}
+	private static class Extraction {
+		final int index;
+		final CompletableFuture<FingerprintTemplate> future;
+		FingerprintTemplate template;
+		Extraction(int index, CompletableFuture<FingerprintTemplate> future) {
+			this.index = index;
+			this.future = future;
+		}
+	}
+	private class ExtractionQueue {
+		final Iterator<FingerprintImage> images;
+		final int limit;
+		// 순서대로 기다릴 때 끝난 template을 최대 window개까지 쌓아 둔다. template은 이미지에 비해 작다.
+		final int window;
+		// 제출 순서. 끝났지만 아직 내보내지 않은 것도 포함한다.
+		final List<Extraction> pending = new ArrayList<>();
+		int submitted;
+		// 실행 중인 추출 수. 완료 callback이 worker thread에서 줄이므로 this로 동기화한다.
+		int running;
+		ExtractionQueue(Iterator<FingerprintImage> images) {
+			this.images = images;
+			limit = concurrency > 0 ? concurrency : executor instanceof ForkJoinPool ? ((ForkJoinPool)executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+			window = 4 * limit;
+		}
+		synchronized boolean hasNext() {
+			return !pending.isEmpty() || images.hasNext();
+		}
+		Extraction next(boolean ordered) {
+			Extraction extraction;
+			synchronized (this) {
+				while (true) {
+					// 이미지는 호출한 thread에서만 읽는다. 실행 중인 추출이 limit개를 넘지 않게 한다.
+					while (running < limit && pending.size() < window && images.hasNext())
+						submit(images.next());
+					if (pending.isEmpty())
+						throw new NoSuchElementException();
+					int found = ordered ? (pending.get(0).future.isDone() ? 0 : -1) : done();
+					if (found >= 0) {
+						extraction = pending.remove(found);
+						break;
+					}
+					// 추출이 하나 끝날 때마다 깨어나서 새 이미지를 제출하거나 결과를 내보낸다.
+					Exceptions.sneak().run(this::wait);
+				}
+			}
+			extraction.template = FingerprintMatcher.join(extraction.future);
+			return extraction;
+		}
+		private int done() {
+			for (int i = 0; i < pending.size(); ++i)
+				if (pending.get(i).future.isDone())
+					return i;
+			return -1;
+		}
+		private void submit(FingerprintImage image) {
+			++running;
+			CompletableFuture<FingerprintTemplate> future = CompletableFuture.supplyAsync(image::extract, executor);
+			pending.add(new Extraction(submitted++, future));
+			future.whenComplete((template, exception) -> finished());
+		}
+		private synchronized void finished() {
+			--running;
+			notifyAll();
+		}
+	}
+}
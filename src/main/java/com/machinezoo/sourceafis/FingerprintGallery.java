@@ -0,0 +1,241 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import com.machinezoo.noexception.*;
+
+/**
+ * Memory-mapped collection of fingerprint templates optimized for large 1:N searches.
+ * {@code FingerprintGallery} keeps templates in a single file that is mapped into memory.
+ * Matching reads candidate fingerprints directly from the mapped file without creating {@link FingerprintTemplate} objects.
+ * Java heap usage therefore does not grow with gallery size and the gallery is cached by the operating system.
+ * Opening a gallery is nearly instant regardless of its size.
+ * <p>
+ * Gallery file is created by {@link #write(Path, Collection)} and opened by {@link #open(Path)}.
+ * Opened gallery is searched by calling {@link FingerprintMatcher#search(FingerprintGallery, int, double)}.
+ * Gallery file is immutable. Applications that need to add templates should write a new gallery file.
+ * <p>
+ * Gallery file consists of templates in binary format (see {@link FingerprintTemplate#toBinary(boolean)}) with edge tables
+ * preceded by an index of template offsets. Like other template formats, it can change with every SourceAFIS version.
+ * <p>
+ * This class is thread-safe. Single {@code FingerprintGallery} can be searched by many threads concurrently.
+ *
+ * @see FingerprintMatcher#search(FingerprintGallery, int, double)
+ * @see FingerprintTemplate#toBinary(boolean)
+ */
+public class FingerprintGallery {
+	// "SAFG" little-endian
+	private static final int magic = 0x47464153;
+	private static final int version = 2;
+	/*
+	 * 0   int32           magic
+	 * 4   int32           version
+	 * 8   int32           template count (n)
+	 * 12  int32           reserved
+	 * 16  int64[n + 1]    file offset of every template and end of the last template
+	 *     templates       binary templates with edge table, 8-byte aligned
+	 */
+	private static final int headerSize = 16;
+	private final int size;
+	private final LongBuffer offsets;
+	// 하나의 mapping은 2GB를 넘을 수 없으므로 template 경계에서 나누어 mapping한다.
+	private final int[] segmentStarts;
+	private final ByteBuffer[] segments;
+	private final long[] segmentOffsets;
+	private FingerprintGallery(int size, LongBuffer offsets, int[] segmentStarts, ByteBuffer[] segments, long[] segmentOffsets) {
+		this.size = size;
+		this.offsets = offsets;
+		this.segmentStarts = segmentStarts;
+		this.segments = segments;
+		this.segmentOffsets = segmentOffsets;
+	}
+	/**
+	 * Write fingerprint templates into new gallery file.
+	 * Templates are stored in the iteration order of {@code templates}.
+	 * Position of every template in this order is its index in the gallery.
+	 * Existing file at {@code path} is overwritten.
+	 * <p>
+	 * Templates are streamed to the file one at a time, so {@code templates} can be a lazily loaded collection.
+	 *
+	 * @param path
+	 *            path to the gallery file that will be created
+	 * @param templates
+	 *            fingerprint templates to store in the gallery
+	 * @throws IllegalStateException
+	 *             if some template cannot be stored in binary format (see {@link FingerprintTemplate#toBinary(boolean)})
+	 *
+	 * @see #open(Path)
+	 */
+	public static void write(Path path, Collection<FingerprintTemplate> templates) {
+		Exceptions.sneak().run(() -> {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				int count = templates.size();
+				long start = align(headerSize + 8L * (count + 1));
+				channel.position(start);
+				OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20);
+				ByteBuffer index = ByteBuffer.allocate(8 << 12).order(ByteOrder.LITTLE_ENDIAN);
+				long indexPosition = headerSize;
+				long position = start;
+				int written = 0;
+				for (FingerprintTemplate template : templates) {
+					if (written >= count)
+						throw new ConcurrentModificationException();
+					byte[] binary = template.toBinary(true);
+					stream.write(binary);
+					long next = align(position + binary.length);
+					for (long i = position + binary.length; i < next; ++i)
+						stream.write(0);
+					if (!index.hasRemaining())
+						indexPosition += writeFully(channel, index, indexPosition);
+					index.putLong(position);
+					position = next;
+					++written;
+				}
+				if (written != count)
+					throw new ConcurrentModificationException();
+				if (!index.hasRemaining())
+					indexPosition += writeFully(channel, index, indexPosition);
+				index.putLong(position);
+				writeFully(channel, index, indexPosition);
+				stream.flush();
+				ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(magic).putInt(version).putInt(count).putInt(0);
+				writeFully(channel, header, 0);
+			}
+		});
+	}
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+	private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		int length = buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer, position + length - buffer.remaining());
+		buffer.clear();
+		return length;
+	}
+	/**
+	 * Open gallery file previously created by {@link #write(Path, Collection)}.
+	 * The file is mapped into memory and it is read lazily as the gallery is searched.
+	 * The file must not be modified while the gallery is in use.
+	 * Memory mapping is released when the returned {@code FingerprintGallery} is garbage collected.
+	 *
+	 * @param path
+	 *            path to the gallery file
+	 * @return opened fingerprint gallery
+	 * @throws IllegalArgumentException
+	 *             if the file is not a supported version of gallery file
+	 *
+	 * @see #write(Path, Collection)
+	 */
+	public static FingerprintGallery open(Path path) {
+		return open(path, Integer.MAX_VALUE);
+	}
+	static FingerprintGallery open(Path path, int maxSegment) {
+		return Exceptions.sneak().get(() -> {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+				while (header.hasRemaining())
+					if (channel.read(header, header.position()) < 0)
+						throw new IllegalArgumentException("This is not a fingerprint gallery file");
+				if (header.getInt(0) != magic)
+					throw new IllegalArgumentException("This is not a fingerprint gallery file");
+				if (header.getInt(4) != version)
+					throw new IllegalArgumentException("Unsupported version of fingerprint gallery file");
+				int count = header.getInt(8);
+				if (count < 0 || headerSize + 8L * (count + 1) > channel.size())
+					throw new IllegalArgumentException("Truncated fingerprint gallery file");
+				LongBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, 8L * (count + 1))
+					.order(ByteOrder.LITTLE_ENDIAN)
+					.asLongBuffer();
+				if (offsets.get(count) > channel.size())
+					throw new IllegalArgumentException("Truncated fingerprint gallery file");
+				List<Integer> starts = new ArrayList<>();
+				List<ByteBuffer> segments = new ArrayList<>();
+				List<Long> segmentOffsets = new ArrayList<>();
+				int first = 0;
+				while (first < count) {
+					long offset = offsets.get(first);
+					// 이 segment에 들어갈 수 있는 마지막 template을 binary search로 찾는다.
+					int low = first + 1;
+					int high = count;
+					while (low < high) {
+						int middle = (low + high + 1) >>> 1;
+						if (offsets.get(middle) - offset <= maxSegment)
+							low = middle;
+						else
+							high = middle - 1;
+					}
+					if (offsets.get(low) - offset > maxSegment)
+						throw new IllegalArgumentException("Corrupted fingerprint gallery file");
+					starts.add(first);
+					segments.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, offsets.get(low) - offset).order(ByteOrder.LITTLE_ENDIAN));
+					segmentOffsets.add(offset);
+					first = low;
+				}
+				return new FingerprintGallery(
+					count,
+					offsets,
+					starts.stream().mapToInt(n -> n).toArray(),
+					segments.toArray(new ByteBuffer[segments.size()]),
+					segmentOffsets.stream().mapToLong(n -> n).toArray());
+			}
+		});
+	}
+	/**
+	 * Get number of templates in the gallery.
+	 *
+	 * @return number of templates in the gallery
+	 */
+	public int size() {
+		return size;
+	}
+	/**
+	 * Load single template from the gallery.
+	 * This method creates new {@link FingerprintTemplate} on every call.
+	 * It is intended for occasional access, for example to fetch templates found by search.
+	 *
+	 * @param index
+	 *            index of the template in the gallery
+	 * @return fingerprint template at position {@code index}
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code index} is negative or not less than {@link #size()}
+	 */
+	public FingerprintTemplate get(int index) {
+		int segment = segment(index);
+		int start = start(segment, index);
+		ByteBuffer slice = segments[segment].duplicate();
+		slice.position(start);
+		slice.limit(start + length(segment, index));
+		return new FingerprintTemplate().fromBinary(slice);
+	}
+	void select(int index, MappedTemplate template) {
+		int segment = segment(index);
+		template.select(segments[segment], start(segment, index), length(segment, index));
+	}
+	// offset table이 손상되어도 template이 자기 segment 밖이나 이웃 template을 읽지 않도록 확인한다.
+	private int start(int segment, int index) {
+		long start = offsets.get(index) - segmentOffsets[segment];
+		if (start < 0 || start > segments[segment].limit())
+			throw new IllegalArgumentException("Corrupted fingerprint gallery file");
+		return (int)start;
+	}
+	private int length(int segment, int index) {
+		long start = offsets.get(index) - segmentOffsets[segment];
+		long end = offsets.get(index + 1) - segmentOffsets[segment];
+		if (end < start || end > segments[segment].limit())
+			throw new IllegalArgumentException("Corrupted fingerprint gallery file");
+		return (int)(end - start);
+	}
+	private int segment(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException();
+		int found = Arrays.binarySearch(segmentStarts, index);
+		return found >= 0 ? found : -found - 2;
+	}
+}
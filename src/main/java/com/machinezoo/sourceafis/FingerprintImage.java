@@ -0,0 +1,79 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+import javax.imageio.*;
+
+/**
+ * Fingerprint image waiting for feature extraction by {@link FingerprintExtractor}.
+ * It holds the image in its original encoded form or as raw grayscale pixels together with its DPI.
+ * Image is decoded only when its extraction starts, so that many waiting images do not take much memory.
+ *
+ * @see FingerprintExtractor
+ */
+public class FingerprintImage {
+	final byte[] image;
+	// raw grayscale 이미지의 크기. encode된 이미지이면 0이다.
+	final int width;
+	final int height;
+	double dpi = 500;
+	/**
+	 * Wrap encoded fingerprint image.
+	 * Image must contain black fingerprint on white background.
+	 * All image formats supported by Java's {@link ImageIO} are accepted, for example JPEG, PNG, or BMP.
+	 * The array is not copied and it must not be modified until the image is extracted.
+	 *
+	 * @param image
+	 *            fingerprint image in {@link ImageIO}-supported format
+	 *
+	 * @see FingerprintTemplate#create(byte[])
+	 */
+	public FingerprintImage(byte[] image) {
+		this.image = Objects.requireNonNull(image);
+		width = 0;
+		height = 0;
+	}
+	/**
+	 * Wrap raw grayscale fingerprint image.
+	 * Image is an array of 8-bit grayscale pixels in row-major order as described in {@link FingerprintTemplate#create(byte[], int, int)}.
+	 * The array is not copied and it must not be modified until the image is extracted.
+	 *
+	 * @param gray
+	 *            {@code width * height} grayscale pixels, one byte per pixel
+	 * @param width
+	 *            width of the image in pixels
+	 * @param height
+	 *            height of the image in pixels
+	 * @throws IllegalArgumentException
+	 *             if {@code width} or {@code height} is not positive or the array is smaller than {@code width * height}
+	 *
+	 * @see FingerprintTemplate#create(byte[], int, int)
+	 */
+	public FingerprintImage(byte[] gray, int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Image must have positive width and height");
+		if (gray.length < (long)width * height)
+			throw new IllegalArgumentException("Array is too small for image of given size");
+		image = gray;
+		this.width = width;
+		this.height = height;
+	}
+	/**
+	 * Set DPI (dots per inch) of the fingerprint image.
+	 * Default DPI is 500.
+	 *
+	 * @param dpi
+	 *            DPI of the fingerprint image, usually around 500
+	 * @return {@code this} (fluent method)
+	 *
+	 * @see FingerprintTemplate#dpi(double)
+	 */
+	public FingerprintImage dpi(double dpi) {
+		this.dpi = dpi;
+		return this;
+	}
+	FingerprintTemplate extract() {
+		FingerprintTemplate template = new FingerprintTemplate().dpi(dpi);
+		return width > 0 ? template.create(image, width, height) : template.create(image);
+	}
+}
@@ -0,0 +1,182 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Inverted edge index over gallery of fingerprint templates for fast approximate 1:N search.
+ * {@code FingerprintIndex} maps quantized shapes of minutia pairs (edges) to lists of gallery templates and minutia pairs with that shape.
+ * Probe fingerprint visits only lists of shapes it contains and votes for candidates that share many edges with it under consistent rotation.
+ * Only the best voted fraction of the gallery is then passed to full matching.
+ * <p>
+ * Templates are added with {@link #add(FingerprintTemplate)} and the index is searched by calling
+ * {@link FingerprintMatcher#search(FingerprintIndex, int, double)}.
+ * Size of the shortlist of fully matched candidates is configured with {@link #shortlist(double)}.
+ * Voting is much cheaper than matching, which makes search of large galleries many times faster.
+ * Cost of voting still grows linearly with the size of the gallery, because every shape is shared by a fixed fraction of the gallery.
+ * Search is approximate. Some true matches can be left out of the shortlist, especially with small shortlist fraction.
+ * <p>
+ * Index keeps only compact form of added templates that is needed for matching.
+ * Added edges are sorted into the inverted index in one step when the index is searched for the first time after adding templates.
+ * <p>
+ * This class is not thread-safe while templates are added.
+ * Once all templates are added, single {@code FingerprintIndex} can be searched by many threads concurrently.
+ *
+ * @see FingerprintMatcher#search(FingerprintIndex, int, double)
+ */
+public class FingerprintIndex {
+	// posting segment 하나는 2^24개(64MB)
+	private static final int segmentBits = 24;
+	// pair에 minutia 번호를 12 bit씩 저장한다.
+	private static final int maxMinutiae = 1 << 12;
+	private final int bits;
+	private double shortlist = 0.05;
+	private final List<ImmutableTemplate> templates = new ArrayList<>();
+	// 아직 inverted index에 넣지 않은 edge. 검색하기 전에 한꺼번에 key 순서로 옮긴다.
+	private IntSegments addedKeys;
+	private IntSegments addedTemplates;
+	private IntSegments addedPairs;
+	private EdgePostings postings = EdgePostings.empty;
+	/**
+	 * Instantiate an empty fingerprint index.
+	 * Templates can be added by calling {@link #add(FingerprintTemplate)}.
+	 */
+	public FingerprintIndex() {
+		this(segmentBits);
+	}
+	FingerprintIndex(int bits) {
+		this.bits = bits;
+		clearAdded();
+	}
+	private void clearAdded() {
+		addedKeys = new IntSegments(bits);
+		addedTemplates = new IntSegments(bits);
+		addedPairs = new IntSegments(bits);
+	}
+	/**
+	 * Set fraction of the gallery that is fully matched during search.
+	 * Candidates with the most votes are selected for full matching.
+	 * Larger fraction improves accuracy of the search at the cost of speed.
+	 * Fraction 1 matches the whole gallery and it returns the same results as linear search.
+	 * Default fraction is 0.05. Shortlist is never shorter than search result limit.
+	 *
+	 * @param fraction
+	 *            fraction of the gallery that is fully matched, between 0 and 1
+	 * @return {@code this} (fluent method)
+	 * @throws IllegalArgumentException
+	 *             if {@code fraction} is not between 0 and 1
+	 */
+	public FingerprintIndex shortlist(double fraction) {
+		if (!(fraction >= 0 && fraction <= 1))
+			throw new IllegalArgumentException("Shortlist fraction must be between 0 and 1");
+		shortlist = fraction;
+		return this;
+	}
+	/**
+	 * Add fingerprint template to the index.
+	 * Templates are numbered in the order they are added, starting with zero.
+	 * This number is then reported by {@link FingerprintMatch#index()}.
+	 * Template is indexed in its current state. Later modifications of the template do not affect the index.
+	 *
+	 * @param template
+	 *            fingerprint template to add to the index
+	 * @return {@code this} (fluent method)
+	 * @throws IllegalArgumentException
+	 *             if the template has more than 4096 minutiae
+	 */
+	public FingerprintIndex add(FingerprintTemplate template) {
+		ImmutableTemplate immutable = template.immutable;
+		if (immutable.minutiaCount() > maxMinutiae)
+			throw new IllegalArgumentException("Template has too many minutiae to be indexed");
+		int id = templates.size();
+		templates.add(immutable);
+		for (int reference = 0; reference < immutable.minutiaCount(); ++reference) {
+			byte direction = VotingTable.quantize(immutable.minutiaDirection(reference));
+			for (int edge = immutable.starStart(reference); edge < immutable.starEnd(reference); ++edge) {
+				// 양방향 edge 중 한쪽만 색인한다. probe 쪽은 모든 방향의 edge를 가지고 있다.
+				int neighbor = immutable.edgeNeighbor(edge);
+				if (reference < neighbor) {
+					addedKeys.add(EdgeHash.hashShape(immutable.edgeLength(edge), immutable.edgeReferenceAngle(edge), immutable.edgeNeighborAngle(edge)));
+					addedTemplates.add(id);
+					addedPairs.add(EdgePostings.pair(reference, neighbor, direction));
+				}
+			}
+		}
+		return this;
+	}
+	/**
+	 * Get number of templates in the index.
+	 *
+	 * @return number of templates in the index
+	 */
+	public int size() {
+		return templates.size();
+	}
+	/**
+	 * Get template previously added to the index.
+	 * This method creates new {@link FingerprintTemplate} on every call,
+	 * because the index keeps only compact form of the template.
+	 *
+	 * @param index
+	 *            number of the template assigned by {@link #add(FingerprintTemplate)}
+	 * @return fingerprint template at position {@code index}
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code index} is negative or not less than {@link #size()}
+	 */
+	public FingerprintTemplate get(int index) {
+		return new FingerprintTemplate(templates.get(index));
+	}
+	ImmutableTemplate immutable(int index) {
+		return templates.get(index);
+	}
+	private synchronized EdgePostings postings() {
+		if (addedKeys.size() > 0) {
+			postings = postings.merge(addedKeys, addedTemplates, addedPairs, bits);
+			clearAdded();
+		}
+		return postings;
+	}
+	int[] shortlist(ImmutableTemplate probe, int limit, Executor executor) {
+		int size = templates.size();
+		int length = Math.min(size, Math.max(limit, (int)Math.ceil(shortlist * size)));
+		if (length >= size) {
+			int[] all = new int[size];
+			for (int i = 0; i < size; ++i)
+				all[i] = i;
+			return all;
+		}
+		VotingTable table = new VotingTable(probe, postings());
+		int[] votes = new int[size];
+		int slices = FingerprintMatcher.slices(size, executor);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < slices; ++i) {
+			int start = (int)((long)size * i / slices);
+			int end = (int)((long)size * (i + 1) / slices);
+			futures.add(CompletableFuture.runAsync(() -> table.vote(start, end, votes), executor));
+		}
+		for (CompletableFuture<Void> future : futures)
+			FingerprintMatcher.join(future);
+		int most = 0;
+		for (int vote : votes)
+			most = Math.max(most, vote);
+		// 표 수의 histogram으로 shortlist에 들어갈 최소 표 수를 찾는다.
+		int[] histogram = new int[most + 2];
+		for (int vote : votes)
+			++histogram[vote];
+		int minimum = most + 1;
+		int above = 0;
+		while (above + histogram[minimum - 1] < length) {
+			above += histogram[minimum - 1];
+			--minimum;
+		}
+		// minimum - 1 표를 받은 template은 앞쪽부터 남은 자리를 채운다.
+		int ties = length - above;
+		int[] selected = new int[length];
+		int count = 0;
+		for (int i = 0; i < size; ++i)
+			if (votes[i] >= minimum || (votes[i] == minimum - 1 && ties-- > 0))
+				selected[count++] = i;
+		return selected;
+	}
+}
@@ -0,0 +1,55 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+
+/**
+ * Candidate fingerprint found by 1:N search together with its similarity score.
+ * Search results are returned by {@link FingerprintMatcher#search(Collection, int, double)}
+ * and {@link FingerprintMatcher#search(FingerprintGallery, int, double)} ordered from the highest score to the lowest.
+ *
+ * @see FingerprintMatcher#search(Collection, int, double)
+ */
+public class FingerprintMatch {
+	private final FingerprintTemplate template;
+	private final double score;
+	private final int index;
+	FingerprintMatch(FingerprintTemplate template, double score, int index) {
+		this.template = template;
+		this.score = score;
+		this.index = index;
+	}
+	/**
+	 * Get matching candidate fingerprint.
+	 * This is the same {@link FingerprintTemplate} instance that was passed to the search method.
+	 * When searching {@link FingerprintGallery}, this is new template loaded from the gallery by {@link FingerprintGallery#get(int)}.
+	 *
+	 * @return matching candidate fingerprint template
+	 */
+	public FingerprintTemplate template() {
+		return template;
+	}
+	/**
+	 * Get similarity score between probe and candidate fingerprint.
+	 * This is the same score that would be returned by {@link FingerprintMatcher#match(FingerprintTemplate)}.
+	 *
+	 * @return similarity score between probe and candidate fingerprints
+	 *
+	 * @see FingerprintMatcher#match(FingerprintTemplate)
+	 */
+	public double score() {
+		return score;
+	}
+	/**
+	 * Get position of the matching candidate in the searched collection, {@link FingerprintGallery}, or {@link FingerprintIndex}.
+	 * Position is zero-based and it follows iteration order of the collection.
+	 *
+	 * @return zero-based position of the candidate fingerprint in the searched collection
+	 */
+	public int index() {
+		return index;
+	}
+	@Override public String toString() {
+		return String.format("#%d @ %f", index, score);
+	}
+}
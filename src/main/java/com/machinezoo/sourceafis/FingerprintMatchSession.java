@@ -0,0 +1,36 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+/**
+ * Reusable scratch memory for matching fingerprints.
+ * Matching needs a few kilobytes of temporary data structures.
+ * By default, {@link FingerprintMatcher} takes them from a small internal pool shared by all threads.
+ * Applications that want to control reuse of this memory explicitly, for example when matching on virtual threads,
+ * can create {@code FingerprintMatchSession} instances, pool them, and pass them to
+ * {@link FingerprintMatcher#match(FingerprintTemplate, FingerprintMatchSession)}.
+ * <p>
+ * Single {@code FingerprintMatchSession} can be used with any number of {@link FingerprintMatcher} instances, one match at a time.
+ * This class is not thread-safe. It must not be used by two threads concurrently.
+ * Scratch memory grows to fit the largest matched templates and it is then reused without further allocation.
+ *
+ * @see FingerprintMatcher#match(FingerprintTemplate, FingerprintMatchSession)
+ */
+public class FingerprintMatchSession {
+	final MatchBuffer buffer = new MatchBuffer();
+	/**
+	 * Instantiate new matching session with empty scratch memory.
+	 */
+	public FingerprintMatchSession() {
+	}
+	/**
+	 * Get number of roots (initial minutia pairs) tried by the last match in this session.
+	 * It is never higher than {@link FingerprintMatchingProfile#roots()}.
+	 * It is lower when matching stops early, for example due to threshold or adaptive root budget
+	 * (see {@link FingerprintMatchingProfile#withAdaptiveRoots(int, double)}).
+	 *
+	 * @return number of roots tried by the last match or zero if no match was performed yet
+	 */
+	public int roots() {
+		return buffer.usedRoots;
+	}
+}
@@ -2,7 +2,7 @@
 package com.machinezoo.sourceafis;
 
 import java.util.*;
-import gnu.trove.map.hash.*;
+import java.util.concurrent.*;
 
 /**
  * Fingerprint template representation optimized for fast 1:N matching.
@@ -12,13 +12,21 @@ import gnu.trove.map.hash.*;
  * New matcher is created by passing probe fingerprint template to {@link #index(FingerprintTemplate)}
  * on an empty fingerprint matcher instantiated  with {@link #FingerprintMatcher()} constructor.
  * Candidate fingerprint templates are then passed one by one to {@link #match(FingerprintTemplate)}.
+ * Whole galleries of candidates can be searched in parallel by calling {@link #search(Collection, int, double)}
+ * or {@link #search(FingerprintGallery, int, double)} for memory-mapped galleries.
+ * Very large galleries can be searched approximately with {@link #search(FingerprintIndex, int, double)}.
+ * Galleries indexed in advance can be searched without indexing the probe with {@link #reverseSearch(FingerprintTemplate, List, int, double)}.
  * 
  * @see <a href="https://sourceafis.machinezoo.com/">SourceAFIS overview</a>
  * @see FingerprintTemplate
  */
 public class FingerprintMatcher {
+	// verify()용 profile. 점수는 balanced와 같다.
+	private static final FingerprintMatchingProfile verification = FingerprintMatchingProfile.balanced.withRootEdgeCache(false);
 	private FingerprintTransparency transparency = FingerprintTransparency.none;
 	private volatile ImmutableMatcher immutable = ImmutableMatcher.empty;
+	private volatile FingerprintCascade cascade;
+	private volatile FingerprintMatchingProfile profile = FingerprintMatchingProfile.balanced;
 	/**
 	 * Instantiate an empty fingerprint matcher.
 	 * Empty matcher does not match any {@link FingerprintTemplate} passed to {@link #match(FingerprintTemplate)}.
@@ -44,6 +52,39 @@ public class FingerprintMatcher {
 		this.transparency = Optional.ofNullable(transparency).orElse(FingerprintTransparency.none);
 		return this;
 	}
+	/**
+	 * Enable cascade matching in search methods.
+	 * Subsequent searches will first screen candidates with a cheap partial match
+	 * and fully match only candidates that pass the screening as configured in {@link FingerprintCascade}.
+	 * Cascade does not affect {@link #match(FingerprintTemplate)} and other methods that match single candidate.
+	 * 
+	 * @param cascade
+	 *            cascade configuration and counters or {@code null} to disable cascade matching
+	 * @return {@code this} (fluent method)
+	 * 
+	 * @see FingerprintCascade
+	 */
+	public FingerprintMatcher cascade(FingerprintCascade cascade) {
+		this.cascade = cascade;
+		return this;
+	}
+	/**
+	 * Set limits that trade matching speed for accuracy.
+	 * Profile applies to all subsequent matching with this matcher, including search methods and batch matching.
+	 * It can be changed after {@link #index(FingerprintTemplate)} is called.
+	 * Default profile is {@link FingerprintMatchingProfile#balanced}.
+	 * 
+	 * @param profile
+	 *            matching limits or {@code null} to restore the default profile
+	 * @return {@code this} (fluent method)
+	 * 
+	 * @see FingerprintMatchingProfile
+	 */
+	public FingerprintMatcher profile(FingerprintMatchingProfile profile) {
+		this.profile = Optional.ofNullable(profile).orElse(FingerprintMatchingProfile.balanced);
+		immutable = immutable.withProfile(this.profile);
+		return this;
+	}
 	/**
 	 * Build search data structures over probe fingerprint template.
 	 * Once this method is called, it is possible to call {@link #match(FingerprintTemplate)} to compare fingerprints.
@@ -59,52 +100,11 @@ public class FingerprintMatcher {
 	 */
 	public FingerprintMatcher index(FingerprintTemplate probe) {
 		ImmutableTemplate template = probe.immutable;
-		immutable = new ImmutableMatcher(template, buildEdgeHash(template));
+		EdgeHash edgeHash = new EdgeHash(template);
+		transparency.logEdgeHash(edgeHash);
+		immutable = new ImmutableMatcher(probe, template, edgeHash, profile);
 		return this;
 	}
-	private TIntObjectHashMap<List<IndexedEdge>> buildEdgeHash(ImmutableTemplate template) {
-		// 모든 minutia pare(edge)에 대해 해시를 생성한다
-		// 검색edge의 해시로 검색하면
-		// 해당 edge와 근접한 모든 edge의 리스트가 불려나온다.
-		TIntObjectHashMap<List<IndexedEdge>> map = new TIntObjectHashMap<>();
-		for (int reference = 0; reference < template.minutiae.length; ++reference)
-			for (int neighbor = 0; neighbor < template.minutiae.length; ++neighbor)
-				if (reference != neighbor) {
-					// 모든 minutia 페어에 대하여 IndexedEdge를 만들고
-					IndexedEdge edge = new IndexedEdge(template.minutiae, reference, neighbor);
-					for (int hash : shapeCoverage(edge)) {
-						// 그 Edge의 오차범위를 모두 커버하는 데이터에 대해 해시를 생성하여
-						// 기존 map에서 해시를 가져와서
-						List<IndexedEdge> list = map.get(hash);
-						// 기존에 그 값에 대해 해시가 없으면
-						if (list == null)
-							// 맵에 새로 리시트를 생성하여 추가하고
-							map.put(hash, list = new ArrayList<>());
-						// 해당 리스트에 엣지를 추가한다.
-						list.add(edge);
-					}
-				}
-		transparency.logEdgeHash(map);
-		return map;
-	}
-	private List<Integer> shapeCoverage(EdgeShape edge) {
-		// 오차범위를 고려하여 모든 가능한 해시값을 생성하여 그것을 리스트로 만들어 리턴한다.
-		int minLengthBin = (edge.length - Parameters.maxDistanceError) / Parameters.maxDistanceError;
-		int maxLengthBin = (edge.length + Parameters.maxDistanceError) / Parameters.maxDistanceError;
-		int angleBins = (int)Math.ceil(2 * Math.PI / Parameters.maxAngleError);
-		int minReferenceBin = (int)(Angle.difference(edge.referenceAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
-		int maxReferenceBin = (int)(Angle.add(edge.referenceAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
-		int endReferenceBin = (maxReferenceBin + 1) % angleBins;
-		int minNeighborBin = (int)(Angle.difference(edge.neighborAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
-		int maxNeighborBin = (int)(Angle.add(edge.neighborAngle, Parameters.maxAngleError) / Parameters.maxAngleError);
-		int endNeighborBin = (maxNeighborBin + 1) % angleBins;
-		List<Integer> coverage = new ArrayList<>();
-		for (int lengthBin = minLengthBin; lengthBin <= maxLengthBin; ++lengthBin)
-			for (int referenceBin = minReferenceBin; referenceBin != endReferenceBin; referenceBin = (referenceBin + 1) % angleBins)
-				for (int neighborBin = minNeighborBin; neighborBin != endNeighborBin; neighborBin = (neighborBin + 1) % angleBins)
-					coverage.add((referenceBin << 24) + (neighborBin << 16) + lengthBin);
-		return coverage;
-	}
 	/**
 	 * Match candidate fingerprint to probe fingerprint and calculate similarity score.
 	 * Candidate fingerprint in {@code candidate} parameter is matched to probe fingerprint previously passed to {@link #index(FingerprintTemplate)}.
@@ -127,14 +127,695 @@ public class FingerprintMatcher {
 	 * @see #index(FingerprintTemplate)
 	 */
 	public double match(FingerprintTemplate candidate) {
-		MatchBuffer buffer = MatchBuffer.current();
+		return match(immutable, candidate.immutable);
+	}
+	/**
+	 * Match candidate fingerprint to probe fingerprint, stopping as soon as similarity score reaches the threshold.
+	 * This method is faster than {@link #match(FingerprintTemplate)} when the application only needs match/non-match decision,
+	 * because matching of genuine pairs stops early, usually after trying only a few of possible alignments.
+	 * <p>
+	 * If the score returned by {@link #match(FingerprintTemplate)} is below {@code threshold}, this method returns the same score.
+	 * Otherwise it returns some score that is at least {@code threshold}, but possibly lower than the one returned by {@link #match(FingerprintTemplate)}.
+	 * Expression {@code (match(candidate, threshold) >= threshold)} therefore always equals {@code (match(candidate) >= threshold)}.
+	 * <p>
+	 * This method is thread-safe. Multiple threads can match candidates against single {@code FingerprintMatcher}.
+	 * 
+	 * @param candidate
+	 *            fingerprint template to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param threshold
+	 *            score threshold at which matching stops
+	 * @return similarity score between probe and candidate fingerprints that is exact if it is below {@code threshold}
+	 * 
+	 * @see #matches(FingerprintTemplate, double)
+	 * @see #match(FingerprintTemplate)
+	 */
+	public double match(FingerprintTemplate candidate, double threshold) {
+		return match(immutable, candidate.immutable, threshold);
+	}
+	/**
+	 * Decide whether candidate fingerprint matches probe fingerprint.
+	 * This is a shorthand for {@code (match(candidate, threshold) >= threshold)}.
+	 * It returns the same decision as {@code (match(candidate) >= threshold)}, but it is faster for matching fingerprints.
+	 * <p>
+	 * This method is thread-safe. Multiple threads can match candidates against single {@code FingerprintMatcher}.
+	 * 
+	 * @param candidate
+	 *            fingerprint template to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param threshold
+	 *            minimum similarity score for the fingerprints to be considered matching, 40 is recommended
+	 * @return {@code true} if the fingerprints match, {@code false} otherwise
+	 * 
+	 * @see #match(FingerprintTemplate, double)
+	 */
+	public boolean matches(FingerprintTemplate candidate, double threshold) {
+		return match(candidate, threshold) >= threshold;
+	}
+	/**
+	 * Match candidate fingerprint to probe fingerprint using caller-provided scratch memory.
+	 * This method returns the same score as {@link #match(FingerprintTemplate)},
+	 * but it uses {@code session} instead of scratch memory taken from internal pool.
+	 * <p>
+	 * This method is thread-safe as long as every thread uses its own {@link FingerprintMatchSession}.
+	 * 
+	 * @param candidate
+	 *            fingerprint template to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param session
+	 *            scratch memory for matching that is not used by any other thread at the same time
+	 * @return similarity score between probe and candidate fingerprints
+	 * 
+	 * @see FingerprintMatchSession
+	 * @see #match(FingerprintTemplate)
+	 */
+	public double match(FingerprintTemplate candidate, FingerprintMatchSession session) {
+		return match(session.buffer, immutable, candidate.immutable, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+	}
+	/**
+	 * Match candidate fingerprint to probe fingerprint using caller-provided scratch memory, stopping as soon as similarity score reaches the threshold.
+	 * This method returns the same score as {@link #match(FingerprintTemplate, double)},
+	 * but it uses {@code session} instead of scratch memory taken from internal pool.
+	 * <p>
+	 * This method is thread-safe as long as every thread uses its own {@link FingerprintMatchSession}.
+	 * 
+	 * @param candidate
+	 *            fingerprint template to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param threshold
+	 *            score threshold at which matching stops
+	 * @param session
+	 *            scratch memory for matching that is not used by any other thread at the same time
+	 * @return similarity score between probe and candidate fingerprints that is exact if it is below {@code threshold}
+	 * 
+	 * @see FingerprintMatchSession
+	 * @see #match(FingerprintTemplate, double)
+	 */
+	public double match(FingerprintTemplate candidate, double threshold, FingerprintMatchSession session) {
+		return match(session.buffer, immutable, candidate.immutable, threshold, Double.NEGATIVE_INFINITY);
+	}
+	/**
+	 * Match candidate fingerprint to probe fingerprint using several threads to reduce latency.
+	 * Matching tries many possible alignments (roots) of the two fingerprints.
+	 * This method tries them in parallel on provided executor and then picks the best one.
+	 * It is useful for latency-sensitive 1:1 verification on otherwise idle cores.
+	 * Throughput of 1:N matching is better served by {@link #search(Collection, int, double, Executor)}.
+	 * <p>
+	 * Returned score is always the same as the one returned by {@link #match(FingerprintTemplate)},
+	 * regardless of the number of threads and the order in which they complete.
+	 * Matching is performed on the calling thread when algorithm transparency or adaptive root budget
+	 * (see {@link FingerprintMatchingProfile#withAdaptiveRoots(int, double)}) is enabled.
+	 * <p>
+	 * This method is thread-safe. Multiple threads can match candidates against single {@code FingerprintMatcher}.
+	 * 
+	 * @param candidate
+	 *            fingerprint template to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param executor
+	 *            executor that will run the matching, {@link ForkJoinPool} is recommended
+	 * @return similarity score between probe and candidate fingerprints
+	 * 
+	 * @see #match(FingerprintTemplate)
+	 */
+	public double match(FingerprintTemplate candidate, Executor executor) {
+		ImmutableMatcher matcher = immutable;
+		ImmutableTemplate template = candidate.immutable;
+		// adaptive root budget은 root를 순서대로 시도해야 의미가 있다.
+		if (transparency.logging() || matcher.profile.patience > 0)
+			return match(matcher, template);
+		int[] roots;
+		MatchBuffer buffer = MatchBuffer.acquire();
+		try {
+			buffer.selectMatcher(matcher);
+			buffer.selectCandidate(template);
+			roots = buffer.roots();
+		} finally {
+			MatchBuffer.release(buffer);
+		}
+		// root는 70개 이하이므로 slice를 잘게 나누어 thread 간 부하를 고르게 한다.
+		int slices = slices(roots.length, executor);
+		List<CompletableFuture<Double>> futures = new ArrayList<>();
+		for (int i = 0; i < slices; ++i) {
+			int start = (int)((long)roots.length * i / slices);
+			int end = (int)((long)roots.length * (i + 1) / slices);
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				MatchBuffer slice = MatchBuffer.acquire();
+				try {
+					slice.selectMatcher(matcher);
+					slice.selectCandidate(template);
+					return slice.tryRoots(roots, start, end);
+				} finally {
+					MatchBuffer.release(slice);
+				}
+			}, executor));
+		}
+		double high = 0;
+		for (CompletableFuture<Double> future : futures)
+			high = Math.max(high, join(future));
+		return high;
+	}
+	private double match(ImmutableMatcher matcher, CandidateTemplate candidate) {
+		return match(matcher, candidate, Double.POSITIVE_INFINITY);
+	}
+	private double match(ImmutableMatcher matcher, CandidateTemplate candidate, double threshold) {
+		MatchBuffer buffer = MatchBuffer.acquire();
+		try {
+			return match(buffer, matcher, candidate, threshold, Double.NEGATIVE_INFINITY);
+		} finally {
+			MatchBuffer.release(buffer);
+		}
+	}
+	private double match(MatchBuffer buffer, ImmutableMatcher matcher, CandidateTemplate candidate, double threshold, double cutoff) {
 		try {
 			buffer.transparency = transparency;
-			buffer.selectMatcher(immutable);
-			buffer.selectCandidate(candidate.immutable);
-			return buffer.match();
+			buffer.selectMatcher(matcher);
+			buffer.selectCandidate(candidate);
+			return buffer.match(threshold, cutoff);
 		} finally {
 			buffer.transparency = FingerprintTransparency.none;
 		}
 	}
+	private double screen(MatchBuffer buffer, ImmutableMatcher matcher, CandidateTemplate candidate, FingerprintCascade cascade, double threshold, double cutoff) {
+		if (cascade == null)
+			return match(buffer, matcher, candidate, Double.POSITIVE_INFINITY, cutoff);
+		try {
+			buffer.transparency = transparency;
+			buffer.selectMatcher(matcher);
+			buffer.selectCandidate(candidate);
+			double score = buffer.match(Double.POSITIVE_INFINITY, cutoff, cascade.budget(), cascade.screen());
+			cascade.record(buffer.pruned, buffer.rejected, score >= threshold);
+			// 첫 단계의 점수는 정확하지 않으므로 탈락한 후보는 결과에 넣지 않는다.
+			return buffer.rejected ? 0 : score;
+		} finally {
+			buffer.transparency = FingerprintTransparency.none;
+		}
+	}
+	/**
+	 * Search collection of candidate fingerprints for the best matches of the probe fingerprint.
+	 * This is equivalent to calling {@link #search(Collection, int, double, Executor)}
+	 * with {@link ForkJoinPool#commonPool()} as the executor.
+	 * 
+	 * @param candidates
+	 *            gallery of candidate fingerprint templates to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #search(Collection, int, double, Executor)
+	 */
+	public List<FingerprintMatch> search(Collection<FingerprintTemplate> candidates, int limit, double threshold) {
+		return search(candidates, limit, threshold, ForkJoinPool.commonPool());
+	}
+	/**
+	 * Search collection of candidate fingerprints for the best matches of the probe fingerprint using provided executor.
+	 * Every candidate in {@code candidates} is matched to probe fingerprint previously passed to {@link #index(FingerprintTemplate)}.
+	 * Candidates scoring at least {@code threshold} are returned ordered from the highest score to the lowest.
+	 * Only the best {@code limit} matches are returned. Candidates with equal score are ordered as in {@code candidates}.
+	 * <p>
+	 * Candidate collection is split into slices that are matched concurrently on {@code executor}.
+	 * Scores are the same as those returned by {@link #match(FingerprintTemplate)}
+	 * and the result does not depend on the number of threads or the order in which slices complete.
+	 * Search is performed on the calling thread when algorithm transparency is enabled.
+	 * <p>
+	 * This method is thread-safe. Multiple threads can search galleries with single {@code FingerprintMatcher}.
+	 * 
+	 * @param candidates
+	 *            gallery of candidate fingerprint templates to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @param executor
+	 *            executor that will run the search, {@link ForkJoinPool} is recommended
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #search(Collection, int, double)
+	 * @see #match(FingerprintTemplate)
+	 */
+	public List<FingerprintMatch> search(Collection<FingerprintTemplate> candidates, int limit, double threshold, Executor executor) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative search result limit");
+		ImmutableMatcher matcher = immutable;
+		FingerprintCascade cascade = this.cascade;
+		FingerprintTemplate[] gallery = candidates.toArray(new FingerprintTemplate[candidates.size()]);
+		return split(gallery.length, limit, executor, (start, end) -> scan(matcher, cascade, gallery, start, end, limit, threshold)).sorted();
+	}
+	private TopMatches scan(ImmutableMatcher matcher, FingerprintCascade cascade, FingerprintTemplate[] gallery, int start, int end, int limit, double threshold) {
+		TopMatches top = new TopMatches(limit);
+		// slice마다 buffer 하나를 pool에서 빌려 쓴다.
+		MatchBuffer buffer = MatchBuffer.acquire();
+		try {
+			for (int i = start; i < end; ++i) {
+				double score = screen(buffer, matcher, gallery[i].immutable, cascade, threshold, Math.max(threshold, top.cutoff()));
+				if (score >= threshold)
+					top.add(new FingerprintMatch(gallery[i], score, i));
+			}
+		} finally {
+			MatchBuffer.release(buffer);
+		}
+		return top;
+	}
+	/**
+	 * Search memory-mapped gallery of candidate fingerprints for the best matches of the probe fingerprint.
+	 * This is equivalent to calling {@link #search(FingerprintGallery, int, double, Executor)}
+	 * with {@link ForkJoinPool#commonPool()} as the executor.
+	 * 
+	 * @param gallery
+	 *            gallery of candidate fingerprint templates to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #search(FingerprintGallery, int, double, Executor)
+	 */
+	public List<FingerprintMatch> search(FingerprintGallery gallery, int limit, double threshold) {
+		return search(gallery, limit, threshold, ForkJoinPool.commonPool());
+	}
+	/**
+	 * Search memory-mapped gallery of candidate fingerprints for the best matches of the probe fingerprint using provided executor.
+	 * This method behaves like {@link #search(Collection, int, double, Executor)},
+	 * but candidates are read directly from the memory-mapped {@link FingerprintGallery}.
+	 * No {@link FingerprintTemplate} is created for candidates that are not returned,
+	 * which keeps Java heap usage independent of gallery size.
+	 * Returned matches carry templates loaded from the gallery and their {@link FingerprintMatch#index()} is position in the gallery.
+	 * <p>
+	 * This method is thread-safe. Multiple threads can search galleries with single {@code FingerprintMatcher}.
+	 * 
+	 * @param gallery
+	 *            gallery of candidate fingerprint templates to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @param executor
+	 *            executor that will run the search, {@link ForkJoinPool} is recommended
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #search(FingerprintGallery, int, double)
+	 * @see FingerprintGallery
+	 */
+	public List<FingerprintMatch> search(FingerprintGallery gallery, int limit, double threshold, Executor executor) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative search result limit");
+		ImmutableMatcher matcher = immutable;
+		FingerprintCascade cascade = this.cascade;
+		List<FingerprintMatch> found = split(gallery.size(), limit, executor, (start, end) -> scan(matcher, cascade, gallery, start, end, limit, threshold)).sorted();
+		// 최종 결과에 대해서만 template 객체를 만든다.
+		List<FingerprintMatch> matches = new ArrayList<>();
+		for (FingerprintMatch match : found)
+			matches.add(new FingerprintMatch(gallery.get(match.index()), match.score(), match.index()));
+		return matches;
+	}
+	private TopMatches scan(ImmutableMatcher matcher, FingerprintCascade cascade, FingerprintGallery gallery, int start, int end, int limit, double threshold) {
+		// slice마다 view 하나를 재사용한다.
+		MappedTemplate candidate = new MappedTemplate();
+		TopMatches top = new TopMatches(limit);
+		MatchBuffer buffer = MatchBuffer.acquire();
+		try {
+			for (int i = start; i < end; ++i) {
+				gallery.select(i, candidate);
+				double score = screen(buffer, matcher, candidate, cascade, threshold, Math.max(threshold, top.cutoff()));
+				if (score >= threshold)
+					top.add(new FingerprintMatch(null, score, i));
+			}
+		} finally {
+			MatchBuffer.release(buffer);
+		}
+		return top;
+	}
+	/**
+	 * Search fingerprint index for the best matches of the probe fingerprint.
+	 * This is equivalent to calling {@link #search(FingerprintIndex, int, double, Executor)}
+	 * with {@link ForkJoinPool#commonPool()} as the executor.
+	 * 
+	 * @param index
+	 *            index of candidate fingerprint templates to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #search(FingerprintIndex, int, double, Executor)
+	 */
+	public List<FingerprintMatch> search(FingerprintIndex index, int limit, double threshold) {
+		return search(index, limit, threshold, ForkJoinPool.commonPool());
+	}
+	/**
+	 * Search fingerprint index for the best matches of the probe fingerprint using provided executor.
+	 * Probe fingerprint first votes for candidates in {@link FingerprintIndex} that share edges with it.
+	 * Best voted candidates (see {@link FingerprintIndex#shortlist(double)}) are then matched
+	 * like in {@link #search(Collection, int, double, Executor)}.
+	 * Scores of returned matches are the same as those returned by {@link #match(FingerprintTemplate)},
+	 * but candidates left out of the shortlist are not returned even if they would match.
+	 * <p>
+	 * This method is thread-safe. Multiple threads can search indexes with single {@code FingerprintMatcher}.
+	 * 
+	 * @param index
+	 *            index of candidate fingerprint templates to be matched with probe fingerprint indexed by this {@code FingerprintMatcher}
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @param executor
+	 *            executor that will run the search, {@link ForkJoinPool} is recommended
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #search(FingerprintIndex, int, double)
+	 * @see FingerprintIndex
+	 */
+	public List<FingerprintMatch> search(FingerprintIndex index, int limit, double threshold, Executor executor) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative search result limit");
+		ImmutableMatcher matcher = immutable;
+		FingerprintCascade cascade = this.cascade;
+		int[] shortlist = index.shortlist(matcher.template, limit, executor);
+		return split(shortlist.length, limit, executor, (start, end) -> scan(matcher, cascade, index, shortlist, start, end, limit, threshold)).sorted();
+	}
+	private TopMatches scan(ImmutableMatcher matcher, FingerprintCascade cascade, FingerprintIndex index, int[] shortlist, int start, int end, int limit, double threshold) {
+		TopMatches top = new TopMatches(limit);
+		MatchBuffer buffer = MatchBuffer.acquire();
+		try {
+			for (int i = start; i < end; ++i) {
+				int id = shortlist[i];
+				double score = screen(buffer, matcher, index.immutable(id), cascade, threshold, Math.max(threshold, top.cutoff()));
+				if (score >= threshold)
+					top.add(new FingerprintMatch(index.get(id), score, id));
+			}
+		} finally {
+			MatchBuffer.release(buffer);
+		}
+		return top;
+	}
+	/**
+	 * Search gallery of indexed fingerprints for the best matches of probe fingerprint that is not indexed.
+	 * This is equivalent to calling {@link #reverseSearch(FingerprintTemplate, List, int, double, Executor)}
+	 * with {@link ForkJoinPool#commonPool()} as the executor.
+	 * 
+	 * @param probe
+	 *            probe fingerprint template to be matched with every indexed fingerprint in the gallery
+	 * @param gallery
+	 *            matchers with indexed gallery fingerprints
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #reverseSearch(FingerprintTemplate, List, int, double, Executor)
+	 */
+	public static List<FingerprintMatch> reverseSearch(FingerprintTemplate probe, List<FingerprintMatcher> gallery, int limit, double threshold) {
+		return reverseSearch(probe, gallery, limit, threshold, ForkJoinPool.commonPool());
+	}
+	/**
+	 * Search gallery of indexed fingerprints for the best matches of probe fingerprint that is not indexed using provided executor.
+	 * Methods like {@link #search(Collection, int, double, Executor)} index the probe fingerprint with {@link #index(FingerprintTemplate)},
+	 * which adds latency to every search. This method swaps the roles.
+	 * Gallery fingerprints are indexed once in advance and the probe fingerprint is matched to them as a candidate.
+	 * Indexed gallery takes considerably more memory than plain collection of templates.
+	 * <p>
+	 * Score of every returned match is the same as the one returned by {@code gallery.get(i).match(probe)},
+	 * which can be slightly different from the score obtained with the probe indexed,
+	 * because similarity score is not perfectly symmetric.
+	 * Returned matches carry templates that were passed to {@link #index(FingerprintTemplate)} of gallery matchers
+	 * and their {@link FingerprintMatch#index()} is position in {@code gallery}.
+	 * Transparency and cascade configured on gallery matchers are applied.
+	 * <p>
+	 * This method is thread-safe. Multiple threads can search the same gallery concurrently.
+	 * 
+	 * @param probe
+	 *            probe fingerprint template to be matched with every indexed fingerprint in the gallery
+	 * @param gallery
+	 *            matchers with indexed gallery fingerprints
+	 * @param limit
+	 *            maximum number of returned matches
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @param executor
+	 *            executor that will run the search, {@link ForkJoinPool} is recommended
+	 * @return at most {@code limit} best matches with score at least {@code threshold}, ordered from the highest score
+	 * 
+	 * @see #reverseSearch(FingerprintTemplate, List, int, double)
+	 * @see #search(Collection, int, double, Executor)
+	 */
+	public static List<FingerprintMatch> reverseSearch(FingerprintTemplate probe, List<FingerprintMatcher> gallery, int limit, double threshold, Executor executor) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative search result limit");
+		ImmutableTemplate template = probe.immutable;
+		FingerprintMatcher[] matchers = gallery.toArray(new FingerprintMatcher[gallery.size()]);
+		ImmutableMatcher[] immutables = immutables(matchers);
+		FingerprintCascade[] cascades = new FingerprintCascade[matchers.length];
+		for (int i = 0; i < matchers.length; ++i)
+			cascades[i] = matchers[i].cascade;
+		List<TopMatches> slices = splitBatch(matchers, matchers.length, executor, (start, end) -> {
+			TopMatches top = new TopMatches(limit);
+			// probe는 모든 gallery matcher에 대해 candidate가 된다. root edge는 probe template에 미리 계산되어 있다.
+			MatchBuffer buffer = MatchBuffer.acquire();
+			try {
+				for (int i = start; i < end; ++i) {
+					double score = matchers[i].screen(buffer, immutables[i], template, cascades[i], threshold, Math.max(threshold, top.cutoff()));
+					if (score >= threshold)
+						top.add(new FingerprintMatch(immutables[i].source, score, i));
+				}
+			} finally {
+				MatchBuffer.release(buffer);
+			}
+			return top;
+		});
+		TopMatches top = new TopMatches(limit);
+		for (TopMatches slice : slices)
+			top.merge(slice);
+		return top.sorted();
+	}
+	/**
+	 * Match two fingerprints without creating {@code FingerprintMatcher}.
+	 * Method {@link #index(FingerprintTemplate)} builds edge hash that is expensive to construct,
+	 * which does not pay off when the probe fingerprint is matched only once, for example in 1:1 verification.
+	 * This method instead builds much smaller structure of probe's edges
+	 * and does the extra work of looking up similar edges when candidate's edges are compared to it.
+	 * <p>
+	 * Returned score is the same as the one returned by {@code new FingerprintMatcher().index(probe).match(candidate)}.
+	 * Application should use {@link #index(FingerprintTemplate)} when the same probe is matched with several candidates.
+	 * <p>
+	 * This method is thread-safe.
+	 * 
+	 * @param probe
+	 *            probe fingerprint template
+	 * @param candidate
+	 *            fingerprint template to be matched with the probe fingerprint
+	 * @return similarity score between probe and candidate fingerprints
+	 * 
+	 * @see #match(FingerprintTemplate)
+	 */
+	public static double verify(FingerprintTemplate probe, FingerprintTemplate candidate) {
+		// 오차범위 전체를 커버하지 않는 edge hash. 만드는 비용이 수십 배 작다.
+		// 한 번만 매칭하므로 candidate에 root edge를 보관하지 않는다.
+		ImmutableMatcher matcher = new ImmutableMatcher(probe, probe.immutable, new EdgeHash(probe.immutable, false), verification);
+		MatchBuffer buffer = MatchBuffer.acquire();
+		try {
+			buffer.selectMatcher(matcher);
+			buffer.selectCandidate(candidate.immutable);
+			return buffer.match(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+		} finally {
+			MatchBuffer.release(buffer);
+		}
+	}
+	/**
+	 * Match several probe fingerprints with every candidate fingerprint in one pass.
+	 * This is equivalent to calling {@link #matchBatch(List, List, Executor)}
+	 * with {@link ForkJoinPool#commonPool()} as the executor.
+	 * 
+	 * @param probes
+	 *            matchers with indexed probe fingerprints
+	 * @param candidates
+	 *            candidate fingerprint templates to be matched with every probe fingerprint
+	 * @return matrix of similarity scores indexed first by probe and then by candidate
+	 * 
+	 * @see #matchBatch(List, List, Executor)
+	 */
+	public static double[][] matchBatch(List<FingerprintMatcher> probes, List<FingerprintTemplate> candidates) {
+		return matchBatch(probes, candidates, ForkJoinPool.commonPool());
+	}
+	/**
+	 * Match several probe fingerprints with every candidate fingerprint in one pass using provided executor.
+	 * Score at position {@code [i][j]} is the same as the one returned by {@code probes.get(i).match(candidates.get(j))}.
+	 * <p>
+	 * This is a convenience method that fills the whole score matrix with a single parallel job
+	 * instead of one job per probe. It is not faster than matching every probe separately.
+	 * Candidates are split into slices that are matched concurrently on {@code executor}.
+	 * Every slice is matched with one probe after another.
+	 * Matching is performed on the calling thread when algorithm transparency is enabled on any of the probes.
+	 * 
+	 * @param probes
+	 *            matchers with indexed probe fingerprints
+	 * @param candidates
+	 *            candidate fingerprint templates to be matched with every probe fingerprint
+	 * @param executor
+	 *            executor that will run the matching, {@link ForkJoinPool} is recommended
+	 * @return matrix of similarity scores indexed first by probe and then by candidate
+	 * 
+	 * @see #matchBatch(List, List)
+	 * @see #searchBatch(List, Collection, int, double, Executor)
+	 */
+	public static double[][] matchBatch(List<FingerprintMatcher> probes, List<FingerprintTemplate> candidates, Executor executor) {
+		FingerprintMatcher[] matchers = probes.toArray(new FingerprintMatcher[probes.size()]);
+		ImmutableMatcher[] immutables = immutables(matchers);
+		FingerprintTemplate[] gallery = candidates.toArray(new FingerprintTemplate[candidates.size()]);
+		double[][] scores = new double[matchers.length][gallery.length];
+		splitBatch(matchers, gallery.length, executor, (start, end) -> {
+			MatchBuffer buffer = MatchBuffer.acquire();
+			try {
+				// probe의 edge hash가 candidate보다 훨씬 크므로 probe를 바꾸지 않고 slice 전체를 매칭한다.
+				for (int probe = 0; probe < matchers.length; ++probe)
+					for (int i = start; i < end; ++i)
+						scores[probe][i] = matchers[probe].match(buffer, immutables[probe], gallery[i].immutable, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+			} finally {
+				MatchBuffer.release(buffer);
+			}
+			return null;
+		});
+		return scores;
+	}
+	/**
+	 * Search collection of candidate fingerprints for the best matches of several probe fingerprints in one pass.
+	 * This is equivalent to calling {@link #searchBatch(List, Collection, int, double, Executor)}
+	 * with {@link ForkJoinPool#commonPool()} as the executor.
+	 * 
+	 * @param probes
+	 *            matchers with indexed probe fingerprints
+	 * @param candidates
+	 *            gallery of candidate fingerprint templates to be matched with every probe fingerprint
+	 * @param limit
+	 *            maximum number of returned matches per probe
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @return list of search results for every probe, in the same order as {@code probes}
+	 * 
+	 * @see #searchBatch(List, Collection, int, double, Executor)
+	 */
+	public static List<List<FingerprintMatch>> searchBatch(List<FingerprintMatcher> probes, Collection<FingerprintTemplate> candidates, int limit, double threshold) {
+		return searchBatch(probes, candidates, limit, threshold, ForkJoinPool.commonPool());
+	}
+	/**
+	 * Search collection of candidate fingerprints for the best matches of several probe fingerprints in one pass using provided executor.
+	 * Result for every probe is the same as the one returned by {@link #search(Collection, int, double, Executor)} called on that probe,
+	 * including the effect of {@link #cascade(FingerprintCascade)} if it is configured on the probe's matcher.
+	 * <p>
+	 * This is a convenience method that searches for all probes with a single parallel job
+	 * instead of one job per probe. It is not faster than searching with every probe separately.
+	 * Candidates are split into slices that are searched concurrently on {@code executor}.
+	 * Every slice is searched with one probe after another.
+	 * Matching is performed on the calling thread when algorithm transparency is enabled on any of the probes.
+	 * 
+	 * @param probes
+	 *            matchers with indexed probe fingerprints
+	 * @param candidates
+	 *            gallery of candidate fingerprint templates to be matched with every probe fingerprint
+	 * @param limit
+	 *            maximum number of returned matches per probe
+	 * @param threshold
+	 *            minimum score of returned matches
+	 * @param executor
+	 *            executor that will run the search, {@link ForkJoinPool} is recommended
+	 * @return list of search results for every probe, in the same order as {@code probes}
+	 * 
+	 * @see #searchBatch(List, Collection, int, double)
+	 * @see #search(Collection, int, double, Executor)
+	 */
+	public static List<List<FingerprintMatch>> searchBatch(List<FingerprintMatcher> probes, Collection<FingerprintTemplate> candidates, int limit, double threshold, Executor executor) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative search result limit");
+		FingerprintMatcher[] matchers = probes.toArray(new FingerprintMatcher[probes.size()]);
+		ImmutableMatcher[] immutables = immutables(matchers);
+		FingerprintCascade[] cascades = new FingerprintCascade[matchers.length];
+		for (int probe = 0; probe < matchers.length; ++probe)
+			cascades[probe] = matchers[probe].cascade;
+		FingerprintTemplate[] gallery = candidates.toArray(new FingerprintTemplate[candidates.size()]);
+		List<TopMatches[]> slices = splitBatch(matchers, gallery.length, executor, (start, end) -> {
+			TopMatches[] tops = new TopMatches[matchers.length];
+			for (int probe = 0; probe < matchers.length; ++probe)
+				tops[probe] = new TopMatches(limit);
+			MatchBuffer buffer = MatchBuffer.acquire();
+			try {
+				for (int probe = 0; probe < matchers.length; ++probe) {
+					TopMatches top = tops[probe];
+					for (int i = start; i < end; ++i) {
+						double score = matchers[probe].screen(buffer, immutables[probe], gallery[i].immutable, cascades[probe], threshold, Math.max(threshold, top.cutoff()));
+						if (score >= threshold)
+							top.add(new FingerprintMatch(gallery[i], score, i));
+					}
+				}
+			} finally {
+				MatchBuffer.release(buffer);
+			}
+			return tops;
+		});
+		List<List<FingerprintMatch>> results = new ArrayList<>();
+		for (int probe = 0; probe < matchers.length; ++probe) {
+			TopMatches top = new TopMatches(limit);
+			for (TopMatches[] slice : slices)
+				top.merge(slice[probe]);
+			results.add(top.sorted());
+		}
+		return results;
+	}
+	private interface BatchScan<T> {
+		T scan(int start, int end);
+	}
+	private static ImmutableMatcher[] immutables(FingerprintMatcher[] matchers) {
+		ImmutableMatcher[] immutables = new ImmutableMatcher[matchers.length];
+		for (int i = 0; i < matchers.length; ++i)
+			immutables[i] = matchers[i].immutable;
+		return immutables;
+	}
+	private static <T> List<T> splitBatch(FingerprintMatcher[] matchers, int count, Executor executor, BatchScan<T> scan) {
+		List<T> results = new ArrayList<>();
+		if (Arrays.stream(matchers).anyMatch(m -> m.transparency.logging())) {
+			results.add(scan.scan(0, count));
+			return results;
+		}
+		int slices = slices(count, executor);
+		List<CompletableFuture<T>> futures = new ArrayList<>();
+		for (int i = 0; i < slices; ++i) {
+			int start = (int)((long)count * i / slices);
+			int end = (int)((long)count * (i + 1) / slices);
+			futures.add(CompletableFuture.supplyAsync(() -> scan.scan(start, end), executor));
+		}
+		for (CompletableFuture<T> future : futures)
+			results.add(join(future));
+		return results;
+	}
+	private interface SliceScan {
+		TopMatches scan(int start, int end);
+	}
+	private TopMatches split(int count, int limit, Executor executor, SliceScan scan) {
+		if (transparency.logging())
+			return scan.scan(0, count);
+		int slices = slices(count, executor);
+		List<CompletableFuture<TopMatches>> futures = new ArrayList<>();
+		for (int i = 0; i < slices; ++i) {
+			int start = (int)((long)count * i / slices);
+			int end = (int)((long)count * (i + 1) / slices);
+			futures.add(CompletableFuture.supplyAsync(() -> scan.scan(start, end), executor));
+		}
+		TopMatches top = new TopMatches(limit);
+		for (CompletableFuture<TopMatches> future : futures)
+			top.merge(join(future));
+		return top;
+	}
+	static int slices(int count, Executor executor) {
+		int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool)executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+		// 스레드 수보다 많이 나누어서 slice간 소요시간 차이를 흡수한다.
+		return Math.min(count, 4 * parallelism);
+	}
+	static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error)e.getCause();
+			throw e;
+		}
+	}
 }
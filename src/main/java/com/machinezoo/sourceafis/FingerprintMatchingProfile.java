@@ -0,0 +1,234 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+/**
+ * Limits that trade matching speed for accuracy.
+ * Matching algorithm tries several alignments (roots) of probe and candidate fingerprints
+ * and it builds each alignment by following edges to nearby minutiae.
+ * Profile limits how many roots are tried, how many candidate edges are searched while looking for roots,
+ * and how many neighbor edges are followed from every minutia.
+ * <p>
+ * Profile is enabled by passing it to {@link FingerprintMatcher#profile(FingerprintMatchingProfile)}.
+ * Default profile is {@link #balanced}, which reproduces scores of earlier versions of the library.
+ * Faster profiles lower the scores of some matching pairs and accuracy of scores changes with the profile,
+ * so thresholds should be validated separately for every profile.
+ * <p>
+ * {@code FingerprintMatchingProfile} is immutable. Methods that change limits return new profile.
+ * Single profile can be shared by many threads and matchers.
+ *
+ * @see FingerprintMatcher#profile(FingerprintMatchingProfile)
+ */
+public class FingerprintMatchingProfile {
+	/**
+	 * Default profile. It gives the same scores as matching without profile.
+	 */
+	public static final FingerprintMatchingProfile balanced = new FingerprintMatchingProfile(
+		Parameters.maxTriedRoots, Parameters.maxRootEdgeLookups, Parameters.minRootEdgeLength, Parameters.edgeTableNeighbors);
+	/**
+	 * Profile for fast screening. It tries fewer roots and searches fewer edges while looking for roots.
+	 * Matching is about three times faster, but some matching pairs with low score are missed.
+	 */
+	public static final FingerprintMatchingProfile fast = new FingerprintMatchingProfile(20, 400, Parameters.minRootEdgeLength, Parameters.edgeTableNeighbors);
+	/**
+	 * Profile for accurate adjudication. It tries more roots and searches more edges while looking for roots.
+	 * Matching is about twice as slow, but it finds the best alignment of partial and distorted fingerprints more often.
+	 */
+	public static final FingerprintMatchingProfile accurate = new FingerprintMatchingProfile(200, 5000, Parameters.minRootEdgeLength, Parameters.edgeTableNeighbors);
+	final int roots;
+	final int lookups;
+	final int rootEdgeLength;
+	final int neighbors;
+	// 0이면 adaptive root budget을 쓰지 않는다.
+	final int patience;
+	final double margin;
+	// false이면 candidate의 root edge를 template에 보관하지 않고 매칭할 때마다 계산한다.
+	final boolean rootEdgeCache;
+	private FingerprintMatchingProfile(int roots, int lookups, int rootEdgeLength, int neighbors) {
+		this(roots, lookups, rootEdgeLength, neighbors, 0, 0, true);
+	}
+	private FingerprintMatchingProfile(int roots, int lookups, int rootEdgeLength, int neighbors, int patience, double margin, boolean rootEdgeCache) {
+		this.roots = roots;
+		this.lookups = lookups;
+		this.rootEdgeLength = rootEdgeLength;
+		this.neighbors = neighbors;
+		this.patience = patience;
+		this.margin = margin;
+		this.rootEdgeCache = rootEdgeCache;
+	}
+	/**
+	 * Get maximum number of roots (initial minutia pairs) tried for every candidate.
+	 * It is 70 in {@link #balanced} profile.
+	 *
+	 * @return maximum number of tried roots
+	 */
+	public int roots() {
+		return roots;
+	}
+	/**
+	 * Create profile with different maximum number of roots (initial minutia pairs) tried for every candidate.
+	 * Fewer roots make matching faster, but the best alignment is missed more often.
+	 *
+	 * @param roots
+	 *            maximum number of tried roots
+	 * @return new profile with changed limit
+	 * @throws IllegalArgumentException
+	 *             if {@code roots} is not positive
+	 */
+	public FingerprintMatchingProfile withRoots(int roots) {
+		if (roots <= 0)
+			throw new IllegalArgumentException("Root limit must be positive");
+		return new FingerprintMatchingProfile(roots, lookups, rootEdgeLength, neighbors, patience, margin, rootEdgeCache);
+	}
+	/**
+	 * Get maximum number of candidate edges searched while looking for roots.
+	 * It is 1633 in {@link #balanced} profile.
+	 *
+	 * @return maximum number of searched candidate edges
+	 */
+	public int lookups() {
+		return lookups;
+	}
+	/**
+	 * Create profile with different maximum number of candidate edges searched while looking for roots.
+	 * Searching stops early when {@link #roots()} roots are found.
+	 *
+	 * @param lookups
+	 *            maximum number of searched candidate edges
+	 * @return new profile with changed limit
+	 * @throws IllegalArgumentException
+	 *             if {@code lookups} is not positive
+	 */
+	public FingerprintMatchingProfile withLookups(int lookups) {
+		if (lookups <= 0)
+			throw new IllegalArgumentException("Edge lookup limit must be positive");
+		return new FingerprintMatchingProfile(roots, lookups, rootEdgeLength, neighbors, patience, margin, rootEdgeCache);
+	}
+	/**
+	 * Get minimum length of candidate edges that are searched first while looking for roots.
+	 * Shorter edges are searched only after all longer edges, because long edges are more distinctive.
+	 * It is 58 pixels in {@link #balanced} profile.
+	 *
+	 * @return minimum length of preferred root edges in pixels at 500dpi
+	 */
+	public int rootEdgeLength() {
+		return rootEdgeLength;
+	}
+	/**
+	 * Create profile with different minimum length of candidate edges that are searched first while looking for roots.
+	 *
+	 * @param length
+	 *            minimum length of preferred root edges in pixels at 500dpi
+	 * @return new profile with changed limit
+	 * @throws IllegalArgumentException
+	 *             if {@code length} is negative
+	 */
+	public FingerprintMatchingProfile withRootEdgeLength(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("Root edge length must not be negative");
+		return new FingerprintMatchingProfile(roots, lookups, length, neighbors, patience, margin, rootEdgeCache);
+	}
+	/**
+	 * Get maximum number of neighbor edges followed from every minutia while building alignment.
+	 * It is 9 in {@link #balanced} profile, which is also the number of neighbor edges stored in templates.
+	 *
+	 * @return maximum number of followed neighbor edges
+	 */
+	public int neighbors() {
+		return neighbors;
+	}
+	/**
+	 * Create profile with different maximum number of neighbor edges followed from every minutia while building alignment.
+	 * Only the shortest edges are followed. Templates store only 9 neighbor edges for every minutia,
+	 * so the limit can only be lowered.
+	 *
+	 * @param neighbors
+	 *            maximum number of followed neighbor edges
+	 * @return new profile with changed limit
+	 * @throws IllegalArgumentException
+	 *             if {@code neighbors} is not between 1 and 9
+	 */
+	public FingerprintMatchingProfile withNeighbors(int neighbors) {
+		if (neighbors <= 0 || neighbors > Parameters.edgeTableNeighbors)
+			throw new IllegalArgumentException("Neighbor limit must be between 1 and " + Parameters.edgeTableNeighbors);
+		return new FingerprintMatchingProfile(roots, lookups, rootEdgeLength, neighbors, patience, margin, rootEdgeCache);
+	}
+	/**
+	 * Get number of consecutive unsuccessful roots after which matching stops.
+	 * It is zero if adaptive root budget is disabled, which is the case in {@link #balanced} profile.
+	 *
+	 * @return number of unsuccessful roots that stop matching or zero
+	 * @see #withAdaptiveRoots(int, double)
+	 */
+	public int patience() {
+		return patience;
+	}
+	/**
+	 * Get score margin of adaptive root budget.
+	 *
+	 * @return score margin within which roots are considered successful
+	 * @see #withAdaptiveRoots(int, double)
+	 */
+	public double margin() {
+		return margin;
+	}
+	/**
+	 * Create profile that stops trying roots when it is unlikely that remaining roots change the score.
+	 * Root is successful if it improves the best score so far or if it scores within {@code margin} of the best score.
+	 * Roots scoring zero are never successful. Matching stops after {@code patience} consecutive unsuccessful roots.
+	 * This stops matching quickly when one root clearly dominates and when all roots score zero,
+	 * which is typical for non-matching fingerprints.
+	 * Higher {@code margin} and {@code patience} make the budget more conservative.
+	 * <p>
+	 * Number of roots actually tried by the last match can be obtained from {@link FingerprintMatchSession#roots()}.
+	 *
+	 * @param patience
+	 *            number of consecutive unsuccessful roots that stop matching or zero to disable adaptive root budget
+	 * @param margin
+	 *            score margin within which roots are considered successful
+	 * @return new profile with changed root budget
+	 * @throws IllegalArgumentException
+	 *             if {@code patience} or {@code margin} is negative
+	 */
+	public FingerprintMatchingProfile withAdaptiveRoots(int patience, double margin) {
+		if (patience < 0)
+			throw new IllegalArgumentException("Patience must not be negative");
+		if (!(margin >= 0))
+			throw new IllegalArgumentException("Margin must not be negative");
+		return new FingerprintMatchingProfile(roots, lookups, rootEdgeLength, neighbors, patience, margin, rootEdgeCache);
+	}
+	/**
+	 * Check whether root search data of candidate templates is cached in the templates.
+	 * Caching is enabled in all predefined profiles.
+	 *
+	 * @return {@code true} if root search data is cached in candidate templates
+	 * @see #withRootEdgeCache(boolean)
+	 */
+	public boolean rootEdgeCache() {
+		return rootEdgeCache;
+	}
+	/**
+	 * Create profile that enables or disables caching of root search data in candidate templates.
+	 * When {@link FingerprintTemplate} is matched as a candidate for the first time,
+	 * edges searched while looking for roots are computed and kept in the template, so that later matches do not repeat the work.
+	 * The cache takes about 28 bytes per edge for up to 1633 edges,
+	 * which is usually 20-50KB per template and several times more than the template itself.
+	 * Disabling the cache keeps memory usage of large in-memory galleries low at the cost of slower matching.
+	 * It is also reasonable to disable it when every template is matched only once.
+	 * Scores are the same regardless of this setting.
+	 * Templates in {@link FingerprintGallery} are never cached.
+	 *
+	 * @param enabled
+	 *            {@code true} to cache root search data in candidate templates, {@code false} to compute it for every match
+	 * @return new profile with changed caching
+	 */
+	public FingerprintMatchingProfile withRootEdgeCache(boolean enabled) {
+		return new FingerprintMatchingProfile(roots, lookups, rootEdgeLength, neighbors, patience, margin, enabled);
+	}
+	boolean cachedRootEdges() {
+		// template에 보관된 RootEdges의 앞부분을 그대로 쓸 수 있는지. 보관하지 않는 profile은 매번 계산한다.
+		return rootEdgeCache && rootEdgeLength == Parameters.minRootEdgeLength && lookups <= Parameters.maxRootEdgeLookups;
+	}
+	@Override public String toString() {
+		return String.format("roots=%d, lookups=%d, rootEdgeLength=%d, neighbors=%d, patience=%d, margin=%s, rootEdgeCache=%s", roots, lookups, rootEdgeLength, neighbors, patience, margin, rootEdgeCache);
+	}
+}
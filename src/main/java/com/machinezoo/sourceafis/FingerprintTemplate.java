@@ -1,7 +1,9 @@
 // Part of SourceAFIS: https://sourceafis.machinezoo.com
 package com.machinezoo.sourceafis;
 
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.imageio.*;
 import com.google.gson.*;
 
@@ -12,12 +14,15 @@ import com.google.gson.*;
  * <p>
  * Fingerprint image can be converted to template by calling {@link #create(byte[])} method
  * on an empty fingerprint template instantiated with {@link #FingerprintTemplate()} constructor.
+ * Raw grayscale images from fingerprint readers can be passed directly to {@link #create(byte[], int, int)}.
  * Image DPI may be specified first by calling {@link #dpi(double)}.
+ * Extraction from large images can be parallelized by calling {@link #executor(Executor)}.
  * <p>
  * Since image processing is expensive, applications should cache serialized templates.
  * Serialization into JSON format is performed by {@link #serialize()} method.
  * JSON template can be deserialized by calling {@link #deserialize(String)}.
  * on an empty fingerprint template instantiated with {@link #FingerprintTemplate()} constructor.
+ * Large galleries can use compact binary format produced by {@link #toBinary()} and read by {@link #fromBinary(ByteBuffer)} instead.
  * <p>
  * Matching is performed by constructing {@link FingerprintMatcher},
  * passing probe fingerprint to its {@link FingerprintMatcher#index(FingerprintTemplate)} method,
@@ -25,7 +30,11 @@ import com.google.gson.*;
  * <p>
  * {@code FingerprintTemplate} contains two kinds of data: fingerprint features and search data structures.
  * Search data structures speed up matching at the cost of some RAM.
- * Only fingerprint features are serialized. Search data structures are recomputed after every deserialization.
+ * Only fingerprint features are serialized. Search data structures are recomputed after every deserialization,
+ * unless they were stored in binary template by {@link #toBinary(boolean)}.
+ * Template that is matched as a candidate additionally caches root search data, usually 20-50KB per template,
+ * unless the cache is disabled by {@link FingerprintMatchingProfile#withRootEdgeCache(boolean)}.
+ * Large galleries should take this into account or use memory-mapped {@link FingerprintGallery}, which caches nothing in Java heap.
  * 
  * @see <a href="https://sourceafis.machinezoo.com/">SourceAFIS overview</a>
  * @see FingerprintMatcher
@@ -33,16 +42,20 @@ import com.google.gson.*;
 public class FingerprintTemplate {
 	private double dpi = 500;
 	private FingerprintTransparency transparency = FingerprintTransparency.none;
+	private Executor executor;
 	volatile ImmutableTemplate immutable = ImmutableTemplate.empty;
 	/**
 	 * Instantiate an empty fingerprint template.
 	 * Empty template represents fingerprint with no features that does not match any other fingerprint (not even itself).
 	 * You can then call one of the methods
-	 * {@link #create(byte[])}, {@link #deserialize(String)}, or {@link #convert(byte[])}
+	 * {@link #create(byte[])}, {@link #deserialize(String)}, {@link #fromBinary(ByteBuffer)}, or {@link #convert(byte[])}
 	 * to actually fill the template with useful biometric data.
 	 */
 	public FingerprintTemplate() {
 	}
+	FingerprintTemplate(ImmutableTemplate immutable) {
+		this.immutable = immutable;
+	}
 	/**
 	 * Enable algorithm transparency.
 	 * Subsequent operations on this template will report intermediate data structures created by the algorithm
@@ -73,6 +86,27 @@ public class FingerprintTemplate {
 		this.dpi = dpi;
 		return this;
 	}
+	/**
+	 * Enable parallel feature extraction.
+	 * Subsequent calls to {@link #create(byte[])} will split image processing into rows of image blocks
+	 * and process them in parallel on provided {@link Executor}.
+	 * This reduces latency of extraction from single large image, for example 1000dpi image, on otherwise idle cores.
+	 * Throughput of bulk extraction is better served by extracting several templates concurrently.
+	 * <p>
+	 * Parallel extraction produces exactly the same template as sequential extraction.
+	 * By default, extraction runs entirely on the calling thread.
+	 * 
+	 * @param executor
+	 *            executor that will run the extraction, {@link ForkJoinPool} is recommended,
+	 *            or {@code null} to extract on the calling thread
+	 * @return {@code this} (fluent method)
+	 * 
+	 * @see #create(byte[])
+	 */
+	public FingerprintTemplate executor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
 	/**
 	 * Create fingerprint template from fingerprint image.
 	 * Image must contain black fingerprint on white background at the DPI specified by calling {@link #dpi(double)}.
@@ -89,10 +123,65 @@ public class FingerprintTemplate {
 	public FingerprintTemplate create(byte[] image) {
 		TemplateBuilder builder = new TemplateBuilder();
 		builder.transparency = transparency;
+		builder.executor = executor;
 		builder.extract(image, dpi);
 		immutable = new ImmutableTemplate(builder);
 		return this;
 	}
+	/**
+	 * Create fingerprint template from raw grayscale fingerprint image.
+	 * Image is an array of 8-bit grayscale pixels in row-major order without any padding between rows,
+	 * which is a format often provided by fingerprint reader SDKs.
+	 * Pixel value 0 is black and 255 is white. Image must contain black fingerprint on white background
+	 * at the DPI specified by calling {@link #dpi(double)}.
+	 * <p>
+	 * This method is faster than {@link #create(byte[])}, because it does not need to decode the image.
+	 * It produces the same template as {@link #create(byte[])} given the same image in some lossless format like PNG.
+	 * <p>
+	 * This method replaces any previously added biometric data in this template.
+	 * 
+	 * @param gray
+	 *            {@code width * height} grayscale pixels, one byte per pixel
+	 * @param width
+	 *            width of the image in pixels
+	 * @param height
+	 *            height of the image in pixels
+	 * @return {@code this} (fluent method)
+	 * @throws IllegalArgumentException
+	 *             if {@code width} or {@code height} is not positive or the array is smaller than {@code width * height}
+	 * 
+	 * @see #create(ByteBuffer, int, int)
+	 * @see #dpi(double)
+	 */
+	public FingerprintTemplate create(byte[] gray, int width, int height) {
+		return create(ByteBuffer.wrap(gray), width, height);
+	}
+	/**
+	 * Create fingerprint template from raw grayscale fingerprint image in a buffer.
+	 * This method is equivalent to {@link #create(byte[], int, int)}
+	 * except that pixels are read from {@code gray} starting at its current position.
+	 * Position of the buffer is not changed. Direct buffers are supported.
+	 * 
+	 * @param gray
+	 *            buffer with {@code width * height} grayscale pixels, one byte per pixel, starting at its position
+	 * @param width
+	 *            width of the image in pixels
+	 * @param height
+	 *            height of the image in pixels
+	 * @return {@code this} (fluent method)
+	 * @throws IllegalArgumentException
+	 *             if {@code width} or {@code height} is not positive or the buffer has less than {@code width * height} remaining bytes
+	 * 
+	 * @see #create(byte[], int, int)
+	 */
+	public FingerprintTemplate create(ByteBuffer gray, int width, int height) {
+		TemplateBuilder builder = new TemplateBuilder();
+		builder.transparency = transparency;
+		builder.executor = executor;
+		builder.extract(gray, width, height, dpi);
+		immutable = new ImmutableTemplate(builder);
+		return this;
+	}
 	/**
 	 * Deserialize fingerprint template from JSON string.
 	 * This method reads JSON string produced by {@link #serialize()} to reconstruct an exact copy of the original fingerprint template.
@@ -138,7 +227,80 @@ public class FingerprintTemplate {
 	 */
 	public String serialize() {
 		ImmutableTemplate current = immutable;
-		return new Gson().toJson(new JsonTemplate(current.size, current.minutiae));
+		return new Gson().toJson(new JsonTemplate(current.size, current.minutiae()));
+	}
+	/**
+	 * Serialize fingerprint template into compact binary format.
+	 * Binary template holds the same data as JSON template produced by {@link #serialize()},
+	 * but it is several times smaller and it can be read back by {@link #fromBinary(ByteBuffer)} much faster.
+	 * It is intended for applications that store and load large galleries of templates.
+	 * Call {@link #toBinary(boolean)} to include precomputed edge table for even faster loading.
+	 * <p>
+	 * Binary format is little-endian and it starts with format version.
+	 * Like JSON format, it can change with every SourceAFIS version.
+	 * Older versions of the binary format are rejected by {@link #fromBinary(ByteBuffer)}.
+	 * 
+	 * @return serialized fingerprint template in binary format
+	 * @throws IllegalStateException
+	 *             if some minutia position does not fit in the binary format (larger than 65535 pixels or negative)
+	 * 
+	 * @see #fromBinary(ByteBuffer)
+	 * @see #serialize()
+	 */
+	public byte[] toBinary() {
+		return toBinary(false);
+	}
+	/**
+	 * Serialize fingerprint template into compact binary format, optionally including edge table.
+	 * Edge table is a search data structure that {@code FingerprintTemplate} derives from minutiae.
+	 * Computing it is the most expensive part of template deserialization.
+	 * If {@code edgeTable} is {@code true}, the edge table is stored in the binary template
+	 * and {@link #fromBinary(ByteBuffer)} uses it as is instead of recomputing it.
+	 * Binary template with edge table is over ten times larger (a few times larger than JSON template),
+	 * but loading such templates is much faster.
+	 * <p>
+	 * Edge table is read without full validation.
+	 * Applications should store such templates only where they cannot be tampered with.
+	 * 
+	 * @param edgeTable
+	 *            whether to include precomputed edge table
+	 * @return serialized fingerprint template in binary format
+	 * @throws IllegalStateException
+	 *             if some minutia position does not fit in the binary format (larger than 65535 pixels or negative)
+	 * 
+	 * @see #toBinary()
+	 * @see #fromBinary(ByteBuffer)
+	 */
+	public byte[] toBinary(boolean edgeTable) {
+		ImmutableTemplate current = immutable;
+		return BinaryTemplate.serialize(current.size, current.minutiae(), edgeTable ? current.edges() : null);
+	}
+	/**
+	 * Deserialize fingerprint template from binary format.
+	 * This method reads binary template produced by {@link #toBinary()} to reconstruct an exact copy of the original fingerprint template.
+	 * Template is read starting at current position of {@code binary}.
+	 * Position of {@code binary} is then advanced past the end of the template,
+	 * so that several templates stored one after another can be read from single buffer.
+	 * Byte order of {@code binary} is ignored and left unchanged.
+	 * <p>
+	 * This method replaces any previously added biometric data in this template.
+	 * 
+	 * @param binary
+	 *            buffer positioned at the start of serialized fingerprint template in binary format produced by {@link #toBinary()}
+	 * @return {@code this} (fluent method)
+	 * @throws IllegalArgumentException
+	 *             if {@code binary} does not contain supported version of binary template
+	 * 
+	 * @see #toBinary()
+	 * @see #toBinary(boolean)
+	 * @see #deserialize(String)
+	 */
+	public FingerprintTemplate fromBinary(ByteBuffer binary) {
+		TemplateBuilder builder = new TemplateBuilder();
+		builder.transparency = transparency;
+		builder.deserialize(binary);
+		immutable = new ImmutableTemplate(builder);
+		return this;
 	}
 	/**
 	 * Import ISO 19794-2 fingerprint template from another fingerprint recognition system.
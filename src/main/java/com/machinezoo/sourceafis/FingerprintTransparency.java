@@ -7,7 +7,6 @@ import java.nio.charset.*;
 import java.util.*;
 import java.util.function.*;
 import com.google.gson.*;
-import gnu.trove.map.hash.*;
 
 /**
  * Algorithm transparency API that can capture all intermediate data structures produced by SourceAFIS algorithm.
@@ -100,11 +99,11 @@ public abstract class FingerprintTransparency implements AutoCloseable {
 	boolean logging() {
 		return this != none;
 	}
-	void logDecodedImage(DoubleMap image) {
-		logDoubleMap("decoded-image", image);
+	void logDecodedImage(FloatMap image) {
+		logFloatMap("decoded-image", image);
 	}
-	void logScaledImage(DoubleMap image) {
-		logDoubleMap("scaled-image", image);
+	void logScaledImage(FloatMap image) {
+		logFloatMap("scaled-image", image);
 	}
 	void logBlockMap(BlockMap blocks) {
 		log("block-map", ".json", json(() -> blocks));
@@ -130,11 +129,11 @@ public abstract class FingerprintTransparency implements AutoCloseable {
 	void logFilteredMask(BooleanMap mask) {
 		logBooleanMap("filtered-mask", mask);
 	}
-	void logEqualizedImage(DoubleMap image) {
-		logDoubleMap("equalized-image", image);
+	void logEqualizedImage(FloatMap image) {
+		logFloatMap("equalized-image", image);
 	}
-	void logPixelwiseOrientation(PointMap orientations) {
-		logPointMap("pixelwise-orientation", orientations);
+	void logPixelwiseOrientation(FloatPointMap orientations) {
+		logFloatPointMap("pixelwise-orientation", orientations);
 	}
 	void logBlockOrientation(PointMap orientations) {
 		logPointMap("block-orientation", orientations);
@@ -142,11 +141,11 @@ public abstract class FingerprintTransparency implements AutoCloseable {
 	void logSmoothedOrientation(PointMap orientations) {
 		logPointMap("smoothed-orientation", orientations);
 	}
-	void logParallelSmoothing(DoubleMap smoothed) {
-		logDoubleMap("parallel-smoothing", smoothed);
+	void logParallelSmoothing(FloatMap smoothed) {
+		logFloatMap("parallel-smoothing", smoothed);
 	}
-	void logOrthogonalSmoothing(DoubleMap smoothed) {
-		logDoubleMap("orthogonal-smoothing", smoothed);
+	void logOrthogonalSmoothing(FloatMap smoothed) {
+		logFloatMap("orthogonal-smoothing", smoothed);
 	}
 	void logBinarizedImage(BooleanMap image) {
 		logBooleanMap("binarized-image", image);
@@ -212,8 +211,8 @@ public abstract class FingerprintTransparency implements AutoCloseable {
 	void logIsoMinutiae(TemplateBuilder template) {
 		logMinutiae("iso-minutiae", template);
 	}
-	void logEdgeHash(TIntObjectHashMap<List<IndexedEdge>> edgeHash) {
-		log("edge-hash", ".dat", () -> IndexedEdge.serialize(edgeHash));
+	void logEdgeHash(EdgeHash edgeHash) {
+		log("edge-hash", ".dat", edgeHash::serialize);
 	}
 	void logRootPairs(int count, MinutiaPair[] roots) {
 		if (logging())
@@ -253,6 +252,12 @@ public abstract class FingerprintTransparency implements AutoCloseable {
 	private void logDoubleMap(String name, DoubleMap map) {
 		log(name, ".dat", map::serialize, ".json", json(map::json));
 	}
+	private void logFloatPointMap(String name, FloatPointMap map) {
+		log(name, ".dat", map::serialize, ".json", json(map::json));
+	}
+	private void logFloatMap(String name, FloatMap map) {
+		log(name, ".dat", map::serialize, ".json", json(map::json));
+	}
 	private void logBooleanMap(String name, BooleanMap map) {
 		log(name, ".dat", map::serialize, ".json", json(map::json));
 	}
@@ -0,0 +1,67 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.nio.*;
+
+class FloatMap {
+	// 픽셀 크기의 중간 이미지용. 값은 double로 계산하고 float로 저장하여 메모리와 대역폭을 반으로 줄인다.
+	final int width;
+	final int height;
+	private final float[] array;
+	FloatMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+		array = new float[width * height];
+	}
+	FloatMap(Cell size) {
+		this(size.x, size.y);
+	}
+	Cell size() {
+		return new Cell(width, height);
+	}
+	double get(int x, int y) {
+		return array[offset(x, y)];
+	}
+	double get(Cell at) {
+		return get(at.x, at.y);
+	}
+	void set(int x, int y, double value) {
+		array[offset(x, y)] = (float)value;
+	}
+	void set(Cell at, double value) {
+		set(at.x, at.y, value);
+	}
+	void add(int x, int y, double value) {
+		array[offset(x, y)] += value;
+	}
+	void add(Cell at, double value) {
+		add(at.x, at.y, value);
+	}
+	void multiply(int x, int y, double value) {
+		array[offset(x, y)] *= value;
+	}
+	void multiply(Cell at, double value) {
+		multiply(at.x, at.y, value);
+	}
+	ByteBuffer serialize() {
+		// transparency 형식은 DoubleMap과 같게 유지한다.
+		ByteBuffer buffer = ByteBuffer.allocate(8 * size().area());
+		for (Cell at : size())
+			buffer.putDouble(get(at));
+		buffer.flip();
+		return buffer;
+	}
+	JsonArrayInfo json() {
+		JsonArrayInfo info = new JsonArrayInfo();
+		info.axes = new String[] { "y", "x" };
+		info.dimensions = new int[] { height, width };
+		info.scalar = "double";
+		info.bitness = 64;
+		info.endianness = "big";
+		info.format = "IEEE754";
+		return info;
+	}
+	private int offset(int x, int y) {
+		return y * width + x;
+	}
+}
@@ -0,0 +1,78 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+import gnu.trove.list.array.*;
+
+class HashBuckets {
+	// 정렬된 hash key와 CSR 형식의 bucket.
+	// key i의 bucket은 postings[offsets[i]] ~ postings[offsets[i + 1] - 1]이다.
+	final int[] keys;
+	final int[] offsets;
+	final int[] postings;
+	private final int[] table;
+	HashBuckets(TIntArrayList hashes, TIntArrayList serials) {
+		// hash 기준 stable radix sort. 각 bucket 안에서 serial이 추가된 순서가 유지된다.
+		int total = hashes.size();
+		int[] sortedHashes = hashes.toArray();
+		int[] sortedSerials = serials.toArray();
+		int[] tempHashes = new int[total];
+		int[] tempSerials = new int[total];
+		int[] counts = new int[(1 << 16) + 1];
+		radixPass(sortedHashes, sortedSerials, tempHashes, tempSerials, 0, counts);
+		radixPass(tempHashes, tempSerials, sortedHashes, sortedSerials, 16, counts);
+		postings = sortedSerials;
+		TIntArrayList uniqueKeys = new TIntArrayList();
+		TIntArrayList starts = new TIntArrayList();
+		for (int i = 0; i < total; ++i)
+			if (i == 0 || sortedHashes[i] != sortedHashes[i - 1]) {
+				uniqueKeys.add(sortedHashes[i]);
+				starts.add(i);
+			}
+		starts.add(total);
+		keys = uniqueKeys.toArray();
+		offsets = starts.toArray();
+		table = table(keys);
+	}
+	private static void radixPass(int[] hashes, int[] serials, int[] sortedHashes, int[] sortedSerials, int shift, int[] counts) {
+		// 부호 bit를 뒤집어서 음수 hash가 앞에 오게 한다.
+		Arrays.fill(counts, 0);
+		for (int hash : hashes)
+			++counts[((hash ^ Integer.MIN_VALUE) >>> shift & 0xffff) + 1];
+		for (int i = 1; i < counts.length; ++i)
+			counts[i] += counts[i - 1];
+		for (int i = 0; i < hashes.length; ++i) {
+			int at = counts[(hashes[i] ^ Integer.MIN_VALUE) >>> shift & 0xffff]++;
+			sortedHashes[at] = hashes[i];
+			sortedSerials[at] = serials[i];
+		}
+	}
+	int find(int key) {
+		return find(table, keys, key);
+	}
+	// 정렬된 unique key -> key 번호를 찾는 open addressing table. 빈 칸은 -1이다.
+	static int[] table(int[] keys) {
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, 2 * keys.length - 1));
+		int[] table = new int[1 << bits];
+		Arrays.fill(table, -1);
+		for (int i = 0; i < keys.length; ++i) {
+			int slot = slot(table, keys[i]);
+			while (table[slot] >= 0)
+				slot = (slot + 1) & (table.length - 1);
+			table[slot] = i;
+		}
+		return table;
+	}
+	private static int slot(int[] table, int key) {
+		// Fibonacci hashing. table 크기는 2의 거듭제곱이다.
+		return (key * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(table.length) + 1;
+	}
+	// key가 없으면 -1
+	static int find(int[] table, int[] keys, int key) {
+		for (int slot = slot(table, key);; slot = (slot + 1) & (table.length - 1)) {
+			int bucket = table[slot];
+			if (bucket < 0 || keys[bucket] == key)
+				return bucket;
+		}
+	}
+}
@@ -1,19 +1,27 @@
 // Part of SourceAFIS: https://sourceafis.machinezoo.com
 package com.machinezoo.sourceafis;
 
-import java.util.*;
-import gnu.trove.map.hash.*;
-
 class ImmutableMatcher {
 	static final ImmutableMatcher empty = new ImmutableMatcher();
 	final ImmutableTemplate template;
-	final TIntObjectHashMap<List<IndexedEdge>> edgeHash;
+	final EdgeHash edgeHash;
+	// index된 원본 template. 역방향 검색 결과로 돌려준다.
+	final FingerprintTemplate source;
+	final FingerprintMatchingProfile profile;
 	private ImmutableMatcher() {
 		template = ImmutableTemplate.empty;
-		edgeHash = new TIntObjectHashMap<>();
+		edgeHash = EdgeHash.empty;
+		source = null;
+		profile = FingerprintMatchingProfile.balanced;
 	}
-	ImmutableMatcher(ImmutableTemplate template, TIntObjectHashMap<List<IndexedEdge>> edgeHash) {
+	ImmutableMatcher(FingerprintTemplate source, ImmutableTemplate template, EdgeHash edgeHash, FingerprintMatchingProfile profile) {
+		this.source = source;
 		this.template = template;
 		this.edgeHash = edgeHash;
+		this.profile = profile;
+	}
+	ImmutableMatcher withProfile(FingerprintMatchingProfile profile) {
+		// edge hash는 profile과 무관하므로 그대로 공유한다.
+		return new ImmutableMatcher(source, template, edgeHash, profile);
 	}
 }
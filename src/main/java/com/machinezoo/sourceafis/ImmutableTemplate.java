@@ -1,19 +1,130 @@
 // Part of SourceAFIS: https://sourceafis.machinezoo.com
 package com.machinezoo.sourceafis;
 
-class ImmutableTemplate {
+class ImmutableTemplate implements CandidateTemplate {
 	static final ImmutableTemplate empty = new ImmutableTemplate();
 	final Cell size;
-	final Minutia[] minutiae;
-	final NeighborEdge[][] edges;
+	// minutia 속성을 속성별 배열로 나누어 저장한다(struct of arrays).
+	// 객체가 없으므로 메모리가 적게 들고 matching 루프에서 cache 효율이 좋다.
+	final int[] xs;
+	final int[] ys;
+	// score가 바뀌지 않도록 방향은 double 그대로 저장한다.
+	final double[] directions;
+	// 0 = ending, 1 = bifurcation
+	final byte[] types;
+	// edge table은 CSR 형식이다. minutia i의 star는 [stars[i], stars[i + 1]) 범위의 edge들이다.
+	final int[] stars;
+	final int[] neighbors;
+	final int[] lengths;
+	final double[] referenceAngles;
+	final double[] neighborAngles;
+	// 매칭마다 계산하지 않도록 candidate로 처음 매칭될 때 root edge를 계산해서 보관한다.
+	// edge 하나에 28 byte, 최대 maxRootEdgeLookups개이므로 probe로만 쓰거나 직렬화만 하는 template에는 만들지 않는다.
+	// rootEdgeCache가 꺼진 profile과 verify()는 이것을 만들지 않는다.
+	private volatile RootEdges rootEdges;
 	private ImmutableTemplate() {
 		size = new Cell(1, 1);
-		minutiae = new Minutia[0];
-		edges = new NeighborEdge[0][];
+		xs = new int[0];
+		ys = new int[0];
+		directions = new double[0];
+		types = new byte[0];
+		stars = new int[1];
+		neighbors = new int[0];
+		lengths = new int[0];
+		referenceAngles = new double[0];
+		neighborAngles = new double[0];
 	}
 	ImmutableTemplate(TemplateBuilder builder) {
 		size = builder.size;
-		minutiae = builder.minutiae;
-		edges = builder.edges;
+		Minutia[] minutiae = builder.minutiae;
+		int count = minutiae.length;
+		xs = new int[count];
+		ys = new int[count];
+		directions = new double[count];
+		types = new byte[count];
+		for (int i = 0; i < count; ++i) {
+			xs[i] = minutiae[i].position.x;
+			ys[i] = minutiae[i].position.y;
+			directions[i] = minutiae[i].direction;
+			types[i] = (byte)(minutiae[i].type == MinutiaType.BIFURCATION ? 1 : 0);
+		}
+		// edge table 없이 직렬화만 하는 template도 있으므로 빈 star로 취급한다.
+		NeighborEdge[][] edges = builder.edges;
+		stars = new int[count + 1];
+		if (edges != null)
+			for (int i = 0; i < edges.length; ++i)
+				stars[i + 1] = stars[i] + edges[i].length;
+		int total = stars[count];
+		neighbors = new int[total];
+		lengths = new int[total];
+		referenceAngles = new double[total];
+		neighborAngles = new double[total];
+		if (edges != null)
+			for (int i = 0; i < edges.length; ++i)
+				for (int j = 0; j < edges[i].length; ++j) {
+					NeighborEdge edge = edges[i][j];
+					int at = stars[i] + j;
+					neighbors[at] = edge.neighbor;
+					lengths[at] = edge.length;
+					referenceAngles[at] = edge.referenceAngle;
+					neighborAngles[at] = edge.neighborAngle;
+				}
+	}
+	Minutia[] minutiae() {
+		Minutia[] minutiae = new Minutia[xs.length];
+		for (int i = 0; i < minutiae.length; ++i)
+			minutiae[i] = new Minutia(new Cell(xs[i], ys[i]), directions[i], minutiaType(i));
+		return minutiae;
+	}
+	NeighborEdge[][] edges() {
+		NeighborEdge[][] edges = new NeighborEdge[xs.length][];
+		for (int i = 0; i < edges.length; ++i) {
+			edges[i] = new NeighborEdge[stars[i + 1] - stars[i]];
+			for (int j = 0; j < edges[i].length; ++j) {
+				int at = stars[i] + j;
+				edges[i][j] = new NeighborEdge(neighbors[at], lengths[at], referenceAngles[at], neighborAngles[at]);
+			}
+		}
+		return edges;
+	}
+	@Override public int minutiaCount() {
+		return xs.length;
+	}
+	@Override public int minutiaX(int minutia) {
+		return xs[minutia];
+	}
+	@Override public int minutiaY(int minutia) {
+		return ys[minutia];
+	}
+	@Override public double minutiaDirection(int minutia) {
+		return directions[minutia];
+	}
+	@Override public MinutiaType minutiaType(int minutia) {
+		return types[minutia] != 0 ? MinutiaType.BIFURCATION : MinutiaType.ENDING;
+	}
+	@Override public int starStart(int minutia) {
+		return stars[minutia];
+	}
+	@Override public int starEnd(int minutia) {
+		return stars[minutia + 1];
+	}
+	@Override public int edgeNeighbor(int edge) {
+		return neighbors[edge];
+	}
+	@Override public int edgeLength(int edge) {
+		return lengths[edge];
+	}
+	@Override public double edgeReferenceAngle(int edge) {
+		return referenceAngles[edge];
+	}
+	@Override public double edgeNeighborAngle(int edge) {
+		return neighborAngles[edge];
+	}
+	@Override public RootEdges rootEdges() {
+		RootEdges edges = rootEdges;
+		// 여러 thread가 동시에 만들어도 내용이 같으므로 어느 것이 남아도 된다.
+		if (edges == null)
+			rootEdges = edges = new RootEdges(this);
+		return edges;
 	}
 }
@@ -0,0 +1,43 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+
+// 2^31개를 넘을 수 있는 int 배열. 크기가 2^bits인 segment로 나누어 저장하고 long으로 index한다.
+class IntSegments {
+	private final int bits;
+	private final int mask;
+	private int[][] segments = new int[0][];
+	private long size;
+	IntSegments(int bits) {
+		this.bits = bits;
+		mask = (1 << bits) - 1;
+	}
+	IntSegments(long size, int bits) {
+		this(bits);
+		segments = new int[(int)((size + mask) >>> bits)][];
+		for (int i = 0; i < segments.length; ++i)
+			segments[i] = new int[(int)Math.min(mask + 1, size - ((long)i << bits))];
+		this.size = size;
+	}
+	long size() {
+		return size;
+	}
+	int get(long at) {
+		return segments[(int)(at >>> bits)][(int)at & mask];
+	}
+	void set(long at, int value) {
+		segments[(int)(at >>> bits)][(int)at & mask] = value;
+	}
+	void add(int value) {
+		int segment = (int)(size >>> bits);
+		int offset = (int)size & mask;
+		if (segment == segments.length) {
+			segments = Arrays.copyOf(segments, segment + 1);
+			segments[segment] = new int[Math.min(mask + 1, 1024)];
+		} else if (offset == segments[segment].length)
+			segments[segment] = Arrays.copyOf(segments[segment], Math.min(mask + 1, 2 * offset));
+		segments[segment][offset] = value;
+		++size;
+	}
+}
@@ -0,0 +1,95 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.nio.*;
+
+class MappedTemplate implements CandidateTemplate {
+	// 같은 인스턴스를 여러 template에 재사용하기 위해 final이 아니다.
+	private ByteBuffer buffer;
+	private int count;
+	private int directions;
+	private int xs;
+	private int ys;
+	private int types;
+	private int referenceAngles;
+	private int neighborAngles;
+	private int stars;
+	private int lengths;
+	private int neighbors;
+	// gallery 파일에는 root edge가 없으므로 처음 필요할 때 계산한다. 배열은 template 사이에 재사용한다.
+	private final RootEdges rootEdges = new RootEdges();
+	private boolean rooted;
+	// template은 buffer의 [offset, offset + length) 범위에 있다. 범위를 벗어나는 template은 매칭 도중이 아니라 여기서 거부한다.
+	void select(ByteBuffer buffer, int offset, int length) {
+		if (buffer.order() != ByteOrder.LITTLE_ENDIAN)
+			throw new IllegalArgumentException();
+		if (length < BinaryTemplate.headerSize)
+			throw new IllegalArgumentException("Truncated template in fingerprint gallery");
+		if (buffer.getInt(offset) != BinaryTemplate.magic || buffer.get(offset + 4) != BinaryTemplate.version)
+			throw new IllegalArgumentException("Corrupted template in fingerprint gallery");
+		if ((buffer.get(offset + 5) & BinaryTemplate.edgeTableFlag) == 0)
+			throw new IllegalArgumentException("Template in fingerprint gallery is missing edge table");
+		int count = buffer.getInt(offset + 16);
+		int edges = buffer.getInt(offset + 20);
+		if (!BinaryTemplate.fits(count, edges, length))
+			throw new IllegalArgumentException("Truncated template in fingerprint gallery");
+		this.buffer = buffer;
+		this.count = count;
+		directions = offset + BinaryTemplate.directionOffset(count);
+		xs = offset + BinaryTemplate.xOffset(count);
+		ys = offset + BinaryTemplate.yOffset(count);
+		types = offset + BinaryTemplate.typeOffset(count);
+		referenceAngles = offset + BinaryTemplate.referenceAngleOffset(count, edges);
+		neighborAngles = offset + BinaryTemplate.neighborAngleOffset(count, edges);
+		stars = offset + BinaryTemplate.starOffset(count, edges);
+		lengths = offset + BinaryTemplate.lengthOffset(count, edges);
+		neighbors = offset + BinaryTemplate.neighborOffset(count, edges);
+		// star 범위가 edge table 밖을 가리키면 이웃 template의 byte를 edge로 읽게 된다. minutia 수만큼만 읽으므로 싸다.
+		if (starStart(0) != 0 || starStart(count) != edges)
+			throw new IllegalArgumentException("Corrupted edge table in fingerprint gallery");
+		for (int i = 0; i < count; ++i)
+			if (starStart(i) > starEnd(i))
+				throw new IllegalArgumentException("Corrupted edge table in fingerprint gallery");
+		rooted = false;
+	}
+	@Override public int minutiaCount() {
+		return count;
+	}
+	@Override public int minutiaX(int minutia) {
+		return buffer.getShort(xs + 2 * minutia) & 0xffff;
+	}
+	@Override public int minutiaY(int minutia) {
+		return buffer.getShort(ys + 2 * minutia) & 0xffff;
+	}
+	@Override public double minutiaDirection(int minutia) {
+		return buffer.getDouble(directions + 8 * minutia);
+	}
+	@Override public MinutiaType minutiaType(int minutia) {
+		return (buffer.get(types + minutia / 8) & 1 << (minutia % 8)) != 0 ? MinutiaType.BIFURCATION : MinutiaType.ENDING;
+	}
+	@Override public int starStart(int minutia) {
+		return buffer.getInt(stars + 4 * minutia);
+	}
+	@Override public int starEnd(int minutia) {
+		return buffer.getInt(stars + 4 * minutia + 4);
+	}
+	@Override public int edgeNeighbor(int edge) {
+		return buffer.getInt(neighbors + 4 * edge);
+	}
+	@Override public int edgeLength(int edge) {
+		return buffer.getShort(lengths + 2 * edge) & 0xffff;
+	}
+	@Override public double edgeReferenceAngle(int edge) {
+		return buffer.getDouble(referenceAngles + 8 * edge);
+	}
+	@Override public double edgeNeighborAngle(int edge) {
+		return buffer.getDouble(neighborAngles + 8 * edge);
+	}
+	@Override public RootEdges rootEdges() {
+		if (!rooted) {
+			rootEdges.build(this);
+			rooted = true;
+		}
+		return rootEdges;
+	}
+}
@@ -2,163 +2,325 @@
 package com.machinezoo.sourceafis;
 
 import java.util.*;
-import gnu.trove.map.hash.*;
+import java.util.concurrent.*;
 import gnu.trove.set.hash.*;
 
 class MatchBuffer {
-	private static final ThreadLocal<MatchBuffer> local = ThreadLocal.withInitial(MatchBuffer::new);
+	// ThreadLocal은 virtual thread마다 새 buffer를 만들고 버리므로 크기가 제한된 공용 pool을 쓴다.
+	// pool이 비어 있으면 새로 만들고 가득 차 있으면 돌려받은 buffer를 버린다.
+	private static final BlockingQueue<MatchBuffer> pool = new ArrayBlockingQueue<>(4 * Runtime.getRuntime().availableProcessors());
 	FingerprintTransparency transparency = FingerprintTransparency.none;
 	ImmutableTemplate probe;
 	// integer를 인덱스로 하는 해시맵
-	private TIntObjectHashMap<List<IndexedEdge>> edgeHash;
-	ImmutableTemplate candidate;
-	private MinutiaPair[] pool = new MinutiaPair[1];
-	private int pooled;
-	private PriorityQueue<MinutiaPair> queue = new PriorityQueue<>(Comparator.comparing(p -> p.distance));
+	private EdgeHash edgeHash;
+	private FingerprintMatchingProfile profile = FingerprintMatchingProfile.balanced;
+	// profile이 template에 미리 계산된 것과 다른 root edge를 요구할 때 쓴다.
+	private final RootEdges profileEdges = new RootEdges();
+	CandidateTemplate candidate;
+	// 미리 만들어 둔 pair 객체. 앞에서부터 차례로 쓰고 root가 끝나면 root 이후의 것을 한꺼번에 되돌린다.
+	private MinutiaPair[] pairs = new MinutiaPair[0];
+	private int allocated;
+	private final PairQueue queue = new PairQueue();
 	int count;
 	MinutiaPair[] tree;
 	private MinutiaPair[] byProbe;
 	private MinutiaPair[] byCandidate;
 	private MinutiaPair[] roots;
 	private final TIntHashSet duplicates = new TIntHashSet();
+	// root를 찾을 때 candidate edge 하나에 매치된 probe edge 번호와 조회할 hash key
+	private int[] edgeMatches = new int[16];
+	private final int[] coverageKeys = new int[EdgeHash.maxCoverage];
 	private Score score = new Score();
-	static MatchBuffer current() {
-		return local.get();
+	// branch-and-bound용. star 크기의 최대값과 tree의 각 pair가 만들 수 있는 edge 수의 합.
+	private int probeStarCap;
+	private int candidateStarCap;
+	private int edgeBudget;
+	// cascade의 첫 단계에서 탈락했으면 true
+	boolean rejected;
+	// 후보 전체가 cutoff에 도달할 수 없어서 root를 시도하지 않았으면 true. cascade 탈락과는 따로 센다.
+	boolean pruned;
+	// 마지막 match()에서 실제로 시도한 root 수
+	int usedRoots;
+	static MatchBuffer acquire() {
+		MatchBuffer buffer = pool.poll();
+		return buffer != null ? buffer : new MatchBuffer();
+	}
+	static void release(MatchBuffer buffer) {
+		pool.offer(buffer);
 	}
 	void selectMatcher(ImmutableMatcher matcher) {
 		// probe.minutiae는 원본의 minutia의 array
 		// probe.edges는 사용하지 않는가?
 		// --> tree구성할 때 사용함
 		probe = matcher.template;
-		if (tree == null || probe.minutiae.length > tree.length) {
-			tree = new MinutiaPair[probe.minutiae.length];
+		if (tree == null || probe.minutiaCount() > tree.length) {
+			tree = new MinutiaPair[probe.minutiaCount()];
 			// minutia개수의 자료??
-			byProbe = new MinutiaPair[probe.minutiae.length];
+			byProbe = new MinutiaPair[probe.minutiaCount()];
 		}
 		// edgeHash는 에지의 검색을 빠르게 하기 위한 해시맵
 		edgeHash = matcher.edgeHash;
+		profile = matcher.profile;
+		probeStarCap = maxStar(probe);
 	}
-	void selectCandidate(ImmutableTemplate template) {
-		// candidate.minutiae는 비교할 새 지문의 minutia의 array
+	void selectCandidate(CandidateTemplate template) {
+		// candidate는 비교할 새 지문. ImmutableTemplate이거나 mapped gallery의 template이다.
 		candidate = template;
-		if (byCandidate == null || byCandidate.length < candidate.minutiae.length)
+		if (byCandidate == null || byCandidate.length < candidate.minutiaCount())
 			// minutia개수의 자료??
-			byCandidate = new MinutiaPair[candidate.minutiae.length];
+			byCandidate = new MinutiaPair[candidate.minutiaCount()];
+		candidateStarCap = maxStar(candidate);
+	}
+	private static int maxStar(CandidateTemplate template) {
+		int max = 0;
+		for (int i = 0; i < template.minutiaCount(); ++i)
+			max = Math.max(max, template.starEnd(i) - template.starStart(i));
+		return max;
+	}
+	/*
+	 * threshold 이상의 score가 나오면 나머지 root를 시도하지 않는다.
+	 * cutoff 미만의 score는 정확할 필요가 없으므로 cutoff에 도달할 수 없는 root는 중간에 포기한다.
+	 * 이때 cutoff 미만의 어떤 값이 리턴된다.
+	 * adaptive root budget에서는 root마다 cutoff로 가지치기하지 않는다. 그러면 cutoff 없이 매칭할 때 성공한 root가 실패로 세어져
+	 * patience에 더 일찍 도달하고, cutoff에 도달할 root를 시도하지 못한다.
+	 */
+	double match(double threshold, double cutoff) {
+		return match(threshold, cutoff, 0, Double.NEGATIVE_INFINITY);
 	}
-	double match() {
+	/*
+	 * cascade 매칭. 처음 budget개의 root로 얻은 점수가 screen 미만이면 후보를 탈락시키고(rejected) 나머지 root를 시도하지 않는다.
+	 * 통과한 후보는 같은 root 순서로 이어서 매칭하므로 점수가 cascade 없이 매칭한 것과 같다.
+	 * budget이 0이면 cascade 없이 매칭한다.
+	 */
+	double match(double threshold, double cutoff, int budget, double screen) {
 		try {
+			rejected = false;
+			pruned = false;
+			usedRoots = 0;
+			// transparency 로그는 모든 root에 대해 남겨야 하므로 가지치기를 하지 않는다.
+			boolean pruning = !transparency.logging();
+			// 후보 전체가 cutoff에 도달할 수 없으면 root를 찾을 필요도 없다.
+			if (pruning && bound() < cutoff) {
+				pruned = true;
+				return 0;
+			}
+			allocated = 0;
 			int totalRoots = enumerateRoots();
 			transparency.logRootPairs(totalRoots, roots);
+			// root pair는 매칭이 끝날 때까지 유지하고 그 뒤의 pair는 root마다 재사용한다.
+			int rootPairs = allocated;
 			double high = 0;
 			int best = -1;
+			// adaptive root budget. 최고 점수를 넘지도, margin 이내로 따라오지도 못한 root가 patience개 연속되면 중단한다.
+			boolean adaptive = profile.patience > 0;
+			double margin = adaptive ? profile.margin : 0;
+			int stale = 0;
 			for (int i = 0; i < totalRoots; ++i) {
-				double partial = tryRoot(roots[i]);
+				// 지금까지의 최고 점수를 넘지 못하는 root도 결과에 영향이 없다.
+				// adaptive이면 margin 이내의 root는 끝까지 계산해야 최고 점수를 따라오는지 알 수 있다.
+				// 이때 cutoff는 쓰지 않으므로 성공/실패 판정과 중단 시점이 cutoff 없이 매칭한 것과 같다.
+				double bound = !pruning ? Double.NEGATIVE_INFINITY : adaptive ? high - margin : Math.max(cutoff, high);
+				// 첫 단계에서는 screen 이상의 점수가 정확해야 탈락 여부를 판단할 수 있다.
+				if (i < budget)
+					bound = Math.min(bound, screen);
+				double partial = tryRoot(roots[i], bound);
+				++usedRoots;
 				if (partial > high) {
 					high = partial;
 					best = i;
-				}
+					stale = 0;
+				} else if (partial > 0 && partial >= high - margin)
+					stale = 0;
+				else
+					++stale;
 				clearPairing();
+				allocated = rootPairs;
+				// threshold를 넘으면 나머지 root는 결과(일치 여부)를 바꾸지 못하므로 중단한다.
+				if (high >= threshold)
+					break;
+				if (i + 1 == budget && high < screen) {
+					rejected = true;
+					break;
+				}
+				// 최고 점수의 root가 압도적이거나 모든 root가 0점이면 나머지 root도 결과를 바꿀 가능성이 낮다.
+				if (adaptive && stale >= profile.patience)
+					break;
 			}
+			// root가 budget개보다 적으면 모든 root가 첫 단계에 속한다.
+			if (usedRoots < budget && high < screen)
+				rejected = true;
 			transparency.logBestMatch(best);
 			// 가장 높은 score반환
 			return high;
 		} catch (Throwable e) {
-			local.remove();
+			// 중간에 멈춘 매칭의 상태를 지워서 buffer를 계속 쓸 수 있게 한다.
+			reset();
+			throw e;
+		}
+	}
+	/*
+	 * 병렬 매칭용. root만 찾아서 (probe << 16 | candidate) 형식으로 돌려준다.
+	 * root는 tryRoots()로 여러 buffer에 나누어 시도한다.
+	 */
+	int[] roots() {
+		try {
+			allocated = 0;
+			int totalRoots = enumerateRoots();
+			int[] packed = new int[totalRoots];
+			for (int i = 0; i < totalRoots; ++i)
+				packed[i] = (roots[i].probe << 16) | roots[i].candidate;
+			allocated = 0;
+			return packed;
+		} catch (Throwable e) {
+			reset();
+			throw e;
+		}
+	}
+	/*
+	 * roots[start, end)를 순서대로 시도하고 가장 높은 score를 리턴한다.
+	 * 여기서 가지치기한 root는 이 범위의 최고 점수를 넘지 못하므로 전체 최고 점수는 순차 매칭과 같다.
+	 */
+	double tryRoots(int[] roots, int start, int end) {
+		try {
+			double high = 0;
+			for (int i = start; i < end; ++i) {
+				allocated = 0;
+				MinutiaPair root = allocate();
+				root.probe = roots[i] >>> 16;
+				root.candidate = roots[i] & 0xffff;
+				double partial = tryRoot(root, high);
+				if (partial > high)
+					high = partial;
+				clearPairing();
+			}
+			allocated = 0;
+			return high;
+		} catch (Throwable e) {
+			reset();
 			throw e;
 		}
 	}
 	private int enumerateRoots() {
-		if (roots == null || roots.length < Parameters.maxTriedRoots)
-			roots = new MinutiaPair[Parameters.maxTriedRoots];
-		int totalLookups = 0;
+		int maxRoots = profile.roots;
+		if (roots == null || roots.length < maxRoots)
+			roots = new MinutiaPair[maxRoots];
 		int totalRoots = 0;
 		int triedRoots = 0;
 		duplicates.clear();
-		for (boolean shortEdges : new boolean[] { false, true }) {
-			// period : 1               2                       3
-			// phase  : 0       1       0       1       2       0
-			// refer  : 0 2 ... 1 3 ... 0 3 ... 1 4 ... 2 5 ... 0 4 ...
-			for (int period = 1; period < candidate.minutiae.length; ++period) {
-				// candidate의 모든 minutia에 대해
-				for (int phase = 0; phase <= period; ++phase) {
-					// bubble match??
-					for (int candidateReference = phase; candidateReference < candidate.minutiae.length; candidateReference += period + 1) {
-						
-						// overflow??
-						int candidateNeighbor = (candidateReference + period) % candidate.minutiae.length;
-
-						EdgeShape candidateEdge = new EdgeShape(candidate.minutiae[candidateReference], candidate.minutiae[candidateNeighbor]);
-
-						// minRootEdgeLength를 기준으로 짧은 것과 긴 것을 구분하여 처리
-						if ((candidateEdge.length >= Parameters.minRootEdgeLength) ^ shortEdges) {
-
-							// probe이미지를 이용하여 만든 edgeHash에서 뭔가를 끄집어냄??
-							// 이러면 약간의 오차가 있는 경우 검색이 안되지 않을까?
-							// --> 해시맵을 구성할 때 오차까지 고려하고 구성하여 해결함
-							List<IndexedEdge> matches = edgeHash.get(hashShape(candidateEdge));
-							if (matches != null) {
-								//비슷한 edge가 있으면
-								for (IndexedEdge match : matches) {
-									// 매치된 모든 EdgeShape에 대해서
-									// 비교하여 오차이내로 일치하면
-									if (matchingShapes(match, candidateEdge)) {
-										int duplicateKey = (match.reference << 16) | candidateReference;
-										// 기존에 검색한 적이 없으면
-										// edge가 아니라 minutia에 대해 duplication을 체크하고
-										// probe/candidcate의 minutiaPair를 만듬
-										if (!duplicates.contains(duplicateKey)) {
-											duplicates.add(duplicateKey);
-											MinutiaPair pair = allocate();
-											pair.probe = match.reference;
-											pair.candidate = candidateReference;
-											// roots에 추가
-											roots[totalRoots] = pair;
-											++totalRoots;
-										}
-										++triedRoots;
-										if (triedRoots >= Parameters.maxTriedRoots)
-											return totalRoots;
-									}
-								}
-							}
-							++totalLookups;
-							if (totalLookups >= Parameters.maxRootEdgeLookups)
-								return totalRoots;
-						}
-					}
+		// candidate 쪽 edge 모양과 hash key는 template에 미리 계산되어 있다.
+		RootEdges edges;
+		if (profile.cachedRootEdges())
+			edges = candidate.rootEdges();
+		else {
+			profileEdges.build(candidate, profile.rootEdgeLength, profile.lookups);
+			edges = profileEdges;
+		}
+		int lookups = Math.min(edges.count, profile.lookups);
+		for (int edge = 0; edge < lookups; ++edge) {
+			// probe이미지를 이용하여 만든 edgeHash에서 뭔가를 끄집어냄??
+			// 이러면 약간의 오차가 있는 경우 검색이 안되지 않을까?
+			// --> 해시맵을 구성할 때 오차까지 고려하고 구성하여 해결함
+			int found = edgeHash.coverage ? lookupEdges(edges, edge) : coverEdges(edges, edge);
+			int candidateReference = edges.pairs[edge] >>> 16;
+			//비슷한 edge가 있으면
+			for (int i = 0; i < found; ++i) {
+				// 매치된 모든 edge에 대해서
+				int match = edgeMatches[i];
+				int duplicateKey = (edgeHash.references[match] << 16) | candidateReference;
+				// 기존에 검색한 적이 없으면
+				// edge가 아니라 minutia에 대해 duplication을 체크하고
+				// probe/candidcate의 minutiaPair를 만듬
+				if (!duplicates.contains(duplicateKey)) {
+					duplicates.add(duplicateKey);
+					MinutiaPair pair = allocate();
+					pair.probe = edgeHash.references[match];
+					pair.candidate = candidateReference;
+					// roots에 추가
+					roots[totalRoots] = pair;
+					++totalRoots;
 				}
+				++triedRoots;
+				if (triedRoots >= maxRoots)
+					return totalRoots;
 			}
 		}
 		return totalRoots;
 	}
-	private int hashShape(EdgeShape edge) {
-		// EdgeShape를 오차를 배제한 값으로 단일 정수로 생성함
-		// 양자화오차의 가능성이 남음
-		int lengthBin = edge.length / Parameters.maxDistanceError;
-		int referenceAngleBin = (int)(edge.referenceAngle / Parameters.maxAngleError);
-		int neighborAngleBin = (int)(edge.neighborAngle / Parameters.maxAngleError);
-		return (referenceAngleBin << 24) + (neighborAngleBin << 16) + lengthBin;
+	private int lookupEdges(RootEdges edges, int edge) {
+		int bucket = edgeHash.find(edges.keys[edge]);
+		if (bucket < 0)
+			return 0;
+		int found = 0;
+		for (int posting = edgeHash.offsets[bucket]; posting < edgeHash.offsets[bucket + 1]; ++posting) {
+			int match = edgeHash.postings[posting];
+			// 비교하여 오차이내로 일치하면
+			if (matchingShapes(match, edges.lengths[edge], edges.referenceAngles[edge], edges.neighborAngles[edge]))
+				found = addEdgeMatch(found, match);
+		}
+		return found;
+	}
+	private int coverEdges(RootEdges edges, int edge) {
+		// probe의 edge hash에 오차 범위가 없으므로 candidate edge 쪽에서 오차 범위의 key를 모두 조회한다.
+		// matchingShapes는 대칭이므로 찾는 probe edge의 집합은 lookupEdges와 같다.
+		int keys = EdgeHash.coverage(edges.lengths[edge], edges.referenceAngles[edge], edges.neighborAngles[edge], coverageKeys);
+		int found = 0;
+		for (int i = 0; i < keys; ++i) {
+			int bucket = edgeHash.find(coverageKeys[i]);
+			if (bucket >= 0) {
+				for (int posting = edgeHash.offsets[bucket]; posting < edgeHash.offsets[bucket + 1]; ++posting) {
+					int match = edgeHash.postings[posting];
+					if (matchingShapes(match, edges.lengths[edge], edges.referenceAngles[edge], edges.neighborAngles[edge]))
+						found = addEdgeMatch(found, match);
+				}
+			}
+		}
+		// 같은 key의 edge는 한 bucket에만 있으므로 중복은 없다. lookupEdges의 posting 순서(edge 번호 순)로 맞춘다.
+		Arrays.sort(edgeMatches, 0, found);
+		return found;
+	}
+	private int addEdgeMatch(int found, int match) {
+		if (found >= edgeMatches.length)
+			edgeMatches = Arrays.copyOf(edgeMatches, 2 * edgeMatches.length);
+		edgeMatches[found] = match;
+		return found + 1;
 	}
-	private boolean matchingShapes(EdgeShape probe, EdgeShape candidate) {
+	private boolean matchingShapes(int probe, int length, double referenceAngle, double neighborAngle) {
 		// 두 에지가 비슷하면 true
-		int lengthDelta = probe.length - candidate.length;
+		int lengthDelta = edgeHash.lengths[probe] - length;
 		if (lengthDelta >= -Parameters.maxDistanceError && lengthDelta <= Parameters.maxDistanceError) {
 			double complementaryAngleError = Angle.complementary(Parameters.maxAngleError);
-			double referenceDelta = Angle.difference(probe.referenceAngle, candidate.referenceAngle);
+			double referenceDelta = Angle.difference(edgeHash.referenceAngles[probe], referenceAngle);
 			if (referenceDelta <= Parameters.maxAngleError || referenceDelta >= complementaryAngleError) {
-				double neighborDelta = Angle.difference(probe.neighborAngle, candidate.neighborAngle);
+				double neighborDelta = Angle.difference(edgeHash.neighborAngles[probe], neighborAngle);
 				if (neighborDelta <= Parameters.maxAngleError || neighborDelta >= complementaryAngleError)
 					return true;
 			}
 		}
 		return false;
 	}
-	private double tryRoot(MinutiaPair root) {
+	private double bound() {
+		// 최종 tree는 최대 min(probe, candidate) 개의 pair를 가지고
+		// 새로 추가되는 pair는 각각 최대 star 크기만큼의 edge를 만든다.
+		// score는 최종 pair 수에 대해 선형이므로 양 끝만 확인하면 된다.
+		int probeCount = probe.minutiaCount();
+		int candidateCount = candidate.minutiaCount();
+		int pairs = Math.min(probeCount, candidateCount);
+		int cap = Math.min(Math.min(probeStarCap, candidateStarCap), profile.neighbors);
+		return Math.max(
+			Score.bound(probeCount, candidateCount, count, edgeBudget),
+			Score.bound(probeCount, candidateCount, pairs, edgeBudget + (pairs - count) * cap));
+	}
+	private double tryRoot(MinutiaPair root, double cutoff) {
 		// queue 하나 루트 minutiaPair삽입
 		queue.add(root);
 		do {
 			// tree에 queue의 맨앞 멤버를 추가
 			addPair(queue.remove());
+			// 더 키워도 cutoff에 도달할 수 없으면 이 root를 포기한다.
+			if (bound() < cutoff) {
+				queue.clear();
+				return 0;
+			}
 			collectEdges();
 			skipPaired();
 		} while (!queue.isEmpty());
@@ -168,14 +330,26 @@ class MatchBuffer {
 		transparency.logScore(score);
 		return score.shapedScore;
 	}
+	private void reset() {
+		if (tree != null) {
+			Arrays.fill(tree, null);
+			Arrays.fill(byProbe, null);
+		}
+		if (byCandidate != null)
+			Arrays.fill(byCandidate, null);
+		queue.clear();
+		count = 0;
+		edgeBudget = 0;
+		allocated = 0;
+	}
 	private void clearPairing() {
 		for (int i = 0; i < count; ++i) {
 			byProbe[tree[i].probe] = null;
 			byCandidate[tree[i].candidate] = null;
-			release(tree[i]);
 			tree[i] = null;
 		}
 		count = 0;
+		edgeBudget = 0;
 	}
 	private void collectEdges() {
 		// 현재 노드의 모든 에지에 대해 검색해서 일치하는 것은
@@ -184,11 +358,11 @@ class MatchBuffer {
 
 		// tree의 바로 직전 멤버를 읽어냄
 		MinutiaPair reference = tree[count - 1];
-		// probe에서 이웃 edge를 얻어 냄
-		NeighborEdge[] probeNeighbors = probe.edges[reference.probe];
-		// candicate에서 이웃 edge를 얻어 냄
-		NeighborEdge[] candidateNeigbors = candidate.edges[reference.candidate];
-		for (MinutiaPair pair : matchPairs(probeNeighbors, candidateNeigbors)) {
+		// probe와 candicate에서 이웃 edge는 각 reference minutia의 star로 얻어 냄
+		int first = allocated;
+		matchPairs(reference.probe, reference.candidate);
+		for (int i = first; i < allocated; ++i) {
+			MinutiaPair pair = pairs[i];
 			// probe/candidate에서 일치하는 edge들만의 neighbor들을 minutiaPair의 list로 구성하여 처리함 
 			// probeRef는 probe에서 해당 기준minutia의 인덱스
 			pair.probeRef = reference.probe;
@@ -203,44 +377,49 @@ class MatchBuffer {
 				// 서포팅 엣지를 카운트업 한다.
 				if (byProbe[pair.probe] != null && byProbe[pair.probe].candidate == pair.candidate)
 					addSupportingEdge(pair);
-				// 해당 pair를 해제한다.
-				release(pair);
 			}
 		}
 	}
-	private List<MinutiaPair> matchPairs(NeighborEdge[] probeStar, NeighborEdge[] candidateStar) {
+	private void matchPairs(int probeReference, int candidateReference) {
+		// 일치하는 edge마다 pair를 하나씩 할당하므로 결과는 호출 전의 allocated부터 pairs에 연속으로 놓인다.
 		double complementaryAngleError = Angle.complementary(Parameters.maxAngleError);
-		List<MinutiaPair> results = new ArrayList<>();
-		int start = 0;
-		int end = 0;
+		int[] probeLengths = probe.lengths;
+		// star는 길이 순이므로 profile의 neighbors개로 자르면 가장 짧은 edge만 남는다.
+		int probeEnd = Math.min(probe.stars[probeReference + 1], probe.stars[probeReference] + profile.neighbors);
+		int start = probe.stars[probeReference];
+		int end = start;
 		// 이웃 엣지들이 길이로 정렬되어 있는 것으로 추축됨
-		for (int candidateIndex = 0; candidateIndex < candidateStar.length; ++candidateIndex) {
-			NeighborEdge candidateEdge = candidateStar[candidateIndex];
+		int candidateStart = candidate.starStart(candidateReference);
+		int candidateEnd = Math.min(candidate.starEnd(candidateReference), candidateStart + profile.neighbors);
+		for (int candidateEdge = candidateStart; candidateEdge < candidateEnd; ++candidateEdge) {
+			int candidateLength = candidate.edgeLength(candidateEdge);
+			double candidateReferenceAngle = candidate.edgeReferenceAngle(candidateEdge);
+			double candidateNeighborAngle = candidate.edgeNeighborAngle(candidateEdge);
 			// start,end를 candidate와 거리오차 이내의 것만을 대상으로 한다.
-			while (start < probeStar.length && probeStar[start].length < candidateEdge.length - Parameters.maxDistanceError)
+			while (start < probeEnd && probeLengths[start] < candidateLength - Parameters.maxDistanceError)
 				++start;
 			if (end < start)
 				end = start;
-			while (end < probeStar.length && probeStar[end].length <= candidateEdge.length + Parameters.maxDistanceError)
+			while (end < probeEnd && probeLengths[end] <= candidateLength + Parameters.maxDistanceError)
 				++end;
-			for (int probeIndex = start; probeIndex < end; ++probeIndex) {
-				NeighborEdge probeEdge = probeStar[probeIndex];
-				double referenceDiff = Angle.difference(probeEdge.referenceAngle, candidateEdge.referenceAngle);
+			for (int probeEdge = start; probeEdge < end; ++probeEdge) {
+				double referenceDiff = Angle.difference(probe.referenceAngles[probeEdge], candidateReferenceAngle);
 				if (referenceDiff <= Parameters.maxAngleError || referenceDiff >= complementaryAngleError) {
-					double neighborDiff = Angle.difference(probeEdge.neighborAngle, candidateEdge.neighborAngle);
+					double neighborDiff = Angle.difference(probe.neighborAngles[probeEdge], candidateNeighborAngle);
 					if (neighborDiff <= Parameters.maxAngleError || neighborDiff >= complementaryAngleError) {
 						// edge가 일치하는 것들로만 리스트를 구성한다.
 						MinutiaPair pair = allocate();
-						pair.probe = probeEdge.neighbor;
-						pair.candidate = candidateEdge.neighbor;
+						pair.probe = probe.neighbors[probeEdge];
+						pair.candidate = candidate.edgeNeighbor(candidateEdge);
 						// distance는 나중에 queue에서 뽑혀나오는 순서를 결정한다.
-						pair.distance = candidateEdge.length;
-						results.add(pair);
+						pair.distance = candidateLength;
+						// score 계산에서 edge 모양을 다시 계산하지 않도록 edge 번호를 기억한다.
+						pair.probeEdge = probeEdge;
+						pair.candidateEdge = candidateEdge;
 					}
 				}
 			}
 		}
-		return results;
 	}
 	private void skipPaired() {
 		// 현재 큐에서 짧은 에지들은 이미 커버되었을 가능성이 높으므로
@@ -256,7 +435,6 @@ class MatchBuffer {
 			// 서포팅 엣지를 카운트업 한다.
 			if (byProbe[pair.probe] != null && byProbe[pair.probe].candidate == pair.candidate)
 				addSupportingEdge(pair);
-			release(pair);
 		}
 	}
 	private void addPair(MinutiaPair pair) {
@@ -266,6 +444,8 @@ class MatchBuffer {
 		byProbe[pair.probe] = pair;
 		byCandidate[pair.candidate] = pair;
 		++count;
+		// 이 pair의 star에서 나올 수 있는 tree edge와 supporting edge의 최대 수
+		edgeBudget += Math.min(profile.neighbors, Math.min(probe.stars[pair.probe + 1] - probe.stars[pair.probe], candidate.starEnd(pair.candidate) - candidate.starStart(pair.candidate)));
 	}
 	private void addSupportingEdge(MinutiaPair pair) {
 		++byProbe[pair.probe].supportingEdges;
@@ -273,23 +453,21 @@ class MatchBuffer {
 		transparency.logSupportingEdge(pair);
 	}
 	private MinutiaPair allocate() {
-		if (pooled > 0) {
-			--pooled;
-			MinutiaPair pair = pool[pooled];
-			pool[pooled] = null;
-			return pair;
-		} else
-			return new MinutiaPair();
-	}
-	private void release(MinutiaPair pair) {
-		if (pooled >= pool.length)
-			pool = Arrays.copyOf(pool, 2 * pool.length);
+		if (allocated >= pairs.length) {
+			int length = pairs.length;
+			pairs = Arrays.copyOf(pairs, Math.max(64, 2 * length));
+			for (int i = length; i < pairs.length; ++i)
+				pairs[i] = new MinutiaPair();
+		}
+		MinutiaPair pair = pairs[allocated++];
 		pair.probe = 0;
 		pair.candidate = 0;
 		pair.probeRef = 0;
 		pair.candidateRef = 0;
 		pair.distance = 0;
 		pair.supportingEdges = 0;
-		pool[pooled] = pair;
+		pair.probeEdge = 0;
+		pair.candidateEdge = 0;
+		return pair;
 	}
 }
@@ -8,6 +8,9 @@ class MinutiaPair {
 	int candidateRef;
 	int distance;
 	int supportingEdges;
+	// root가 아닌 pair를 만든 probeRef -> probe, candidateRef -> candidate edge의 번호
+	int probeEdge;
+	int candidateEdge;
 	@Override public String toString() {
 		return String.format("%d<->%d @ %d<->%d #%d", probe, candidate, probeRef, candidateRef, supportingEdges);
 	}
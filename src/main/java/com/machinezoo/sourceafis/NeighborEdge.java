@@ -7,4 +7,8 @@ class NeighborEdge extends EdgeShape {
 		super(minutiae[reference], minutiae[neighbor]);
 		this.neighbor = neighbor;
 	}
+	NeighborEdge(int neighbor, int length, double referenceAngle, double neighborAngle) {
+		super(length, referenceAngle, neighborAngle);
+		this.neighbor = neighbor;
+	}
 }
@@ -0,0 +1,70 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+
+class PairQueue {
+	// distance를 key로 하는 binary heap. key를 int 배열에 따로 두어 비교할 때 boxing이 없다.
+	// 같은 distance의 pair가 나오는 순서가 score에 영향을 주므로 java.util.PriorityQueue와 같은 sift 알고리즘을 쓴다.
+	private int[] keys = new int[16];
+	private MinutiaPair[] items = new MinutiaPair[16];
+	private int size;
+	boolean isEmpty() {
+		return size == 0;
+	}
+	int size() {
+		return size;
+	}
+	MinutiaPair peek() {
+		return size > 0 ? items[0] : null;
+	}
+	void add(MinutiaPair pair) {
+		if (size >= items.length) {
+			keys = Arrays.copyOf(keys, 2 * keys.length);
+			items = Arrays.copyOf(items, 2 * items.length);
+		}
+		int key = pair.distance;
+		int at = size++;
+		while (at > 0) {
+			int parent = (at - 1) >>> 1;
+			if (key >= keys[parent])
+				break;
+			keys[at] = keys[parent];
+			items[at] = items[parent];
+			at = parent;
+		}
+		keys[at] = key;
+		items[at] = pair;
+	}
+	MinutiaPair remove() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		MinutiaPair result = items[0];
+		int last = --size;
+		int key = keys[last];
+		MinutiaPair pair = items[last];
+		items[last] = null;
+		if (last > 0) {
+			int at = 0;
+			int half = last >>> 1;
+			while (at < half) {
+				int child = 2 * at + 1;
+				int right = child + 1;
+				if (right < last && keys[child] > keys[right])
+					child = right;
+				if (key <= keys[child])
+					break;
+				keys[at] = keys[child];
+				items[at] = items[child];
+				at = child;
+			}
+			keys[at] = key;
+			items[at] = pair;
+		}
+		return result;
+	}
+	void clear() {
+		Arrays.fill(items, 0, size, null);
+		size = 0;
+	}
+}
@@ -0,0 +1,72 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+
+class RootEdges {
+	// root를 찾을 때 candidate에서 조회하는 edge들. candidate에만 의존하므로 template마다 한 번만 계산한다.
+	// MatchBuffer.enumerateRoots가 조회하는 순서대로 최대 maxRootEdgeLookups개를 저장한다. 더 적게 조회할 때는 앞부분만 쓴다.
+	int count;
+	// reference << 16 | neighbor
+	int[] pairs = new int[0];
+	int[] keys = new int[0];
+	int[] lengths = new int[0];
+	double[] referenceAngles = new double[0];
+	double[] neighborAngles = new double[0];
+	RootEdges() {
+	}
+	RootEdges(CandidateTemplate template) {
+		build(template);
+		// 계속 가지고 있을 것이므로 여유 공간을 잘라낸다.
+		pairs = Arrays.copyOf(pairs, count);
+		keys = Arrays.copyOf(keys, count);
+		lengths = Arrays.copyOf(lengths, count);
+		referenceAngles = Arrays.copyOf(referenceAngles, count);
+		neighborAngles = Arrays.copyOf(neighborAngles, count);
+	}
+	void build(CandidateTemplate template) {
+		build(template, Parameters.minRootEdgeLength, Parameters.maxRootEdgeLookups);
+	}
+	void build(CandidateTemplate template, int minLength, int maxLookups) {
+		// 배열은 재사용한다. mapped template과 기본값이 아닌 profile은 같은 RootEdges를 여러 template에 쓴다.
+		count = 0;
+		int minutiae = template.minutiaCount();
+		int capacity = Math.min(maxLookups, minutiae * Math.max(0, minutiae - 1));
+		if (pairs.length < capacity) {
+			pairs = new int[capacity];
+			keys = new int[capacity];
+			lengths = new int[capacity];
+			referenceAngles = new double[capacity];
+			neighborAngles = new double[capacity];
+		}
+		// 긴 edge를 먼저, 짧은 edge를 나중에 조회한다.
+		for (int pass = 0; pass < 2; ++pass) {
+			boolean shortEdges = pass == 1;
+			// period : 1               2                       3
+			// phase  : 0       1       0       1       2       0
+			// refer  : 0 2 ... 1 3 ... 0 3 ... 1 4 ... 2 5 ... 0 4 ...
+			for (int period = 1; period < minutiae; ++period)
+				for (int phase = 0; phase <= period; ++phase)
+					for (int reference = phase; reference < minutiae; reference += period + 1) {
+						int neighbor = (reference + period) % minutiae;
+						int vectorX = template.minutiaX(neighbor) - template.minutiaX(reference);
+						int vectorY = template.minutiaY(neighbor) - template.minutiaY(reference);
+						int length = EdgeShape.length(vectorX, vectorY);
+						// minRootEdgeLength를 기준으로 짧은 것과 긴 것을 구분하여 처리
+						if ((length >= minLength) ^ shortEdges) {
+							double angle = EdgeShape.angle(vectorX, vectorY);
+							double referenceAngle = Angle.difference(template.minutiaDirection(reference), angle);
+							double neighborAngle = Angle.difference(template.minutiaDirection(neighbor), Angle.opposite(angle));
+							pairs[count] = (reference << 16) | neighbor;
+							keys[count] = EdgeHash.hashShape(length, referenceAngle, neighborAngle);
+							lengths[count] = length;
+							referenceAngles[count] = referenceAngle;
+							neighborAngles[count] = neighborAngle;
+							++count;
+							if (count >= maxLookups)
+								return;
+						}
+					}
+		}
+	}
+}
@@ -24,9 +24,9 @@ class Score {
 		matchedMinutiaeScore = Parameters.pairCountScore * matchedMinutiae;
 
 		// probe전체 minutia중 매치된 minutia의 비율
-		matchedFractionOfProbeMinutiae = match.count / (double)match.probe.minutiae.length;
+		matchedFractionOfProbeMinutiae = match.count / (double)match.probe.minutiaCount();
 		// candidate전체 minutia중 매치된 것의 비율
-		matchedFractionOfCandidateMinutiae = match.count / (double)match.candidate.minutiae.length;
+		matchedFractionOfCandidateMinutiae = match.count / (double)match.candidate.minutiaCount();
 		// 비율을 이용한 스코어
 		matchedFractionOfAllMinutiaeScore = Parameters.pairFractionScore * (matchedFractionOfProbeMinutiae + matchedFractionOfCandidateMinutiae) / 2;
 
@@ -41,7 +41,7 @@ class Score {
 			if (pair.supportingEdges >= Parameters.minSupportingEdges)
 				++minutiaeWithSeveralEdges;
 			//매치된 minutia의 타잎이 같으면
-			if (match.probe.minutiae[pair.probe].type == match.candidate.minutiae[pair.candidate].type)
+			if (match.probe.minutiaType(pair.probe) == match.candidate.minutiaType(pair.candidate))
 				++correctMinutiaTypeCount;
 		}
 		// 총 edge수를 스코어에 반영 
@@ -58,14 +58,14 @@ class Score {
 		int angleErrorSum = 0;
 		for (int i = 1; i < match.count; ++i) {
 			MinutiaPair pair = match.tree[i];
-			// root방향의 edge에대하여
-			EdgeShape probeEdge = new EdgeShape(match.probe.minutiae[pair.probeRef], match.probe.minutiae[pair.probe]);
-			EdgeShape candidateEdge = new EdgeShape(match.candidate.minutiae[pair.candidateRef], match.candidate.minutiae[pair.candidate]);
+			// root방향의 edge에대하여. pair를 만든 star edge를 그대로 읽는다.
+			int probeEdge = pair.probeEdge;
+			int candidateEdge = pair.candidateEdge;
 			//오차가 innerDistanceRadius보다 작으면 innerDistanceRadius를 추가
-			distanceErrorSum += Math.max(innerDistanceRadius, Math.abs(probeEdge.length - candidateEdge.length));
+			distanceErrorSum += Math.max(innerDistanceRadius, Math.abs(match.probe.lengths[probeEdge] - match.candidate.edgeLength(candidateEdge)));
 			// angle오차도 각각 추가
-			angleErrorSum += Math.max(innerAngleRadius, Angle.distance(probeEdge.referenceAngle, candidateEdge.referenceAngle));
-			angleErrorSum += Math.max(innerAngleRadius, Angle.distance(probeEdge.neighborAngle, candidateEdge.neighborAngle));
+			angleErrorSum += Math.max(innerAngleRadius, Angle.distance(match.probe.referenceAngles[probeEdge], match.candidate.edgeReferenceAngle(candidateEdge)));
+			angleErrorSum += Math.max(innerAngleRadius, Angle.distance(match.probe.neighborAngles[probeEdge], match.candidate.edgeNeighborAngle(candidateEdge)));
 		}
 		accurateEdgeLengthScore = 0;
 		accurateMinutiaAngleScore = 0;
@@ -87,6 +87,27 @@ class Score {
 		// 스코어를 쉐이핑함
 		shapedScore = shape(totalScore);
 	}
+	static double bound(int probeCount, int candidateCount, int pairs, int events) {
+		// pairs개의 pair와 events개의 edge(tree edge + supporting edge)로 얻을 수 있는 최대 shapedScore.
+		// 각 항을 가능한 최대값으로 두므로 compute()의 결과는 이 값을 넘지 못한다.
+		if (pairs <= 0)
+			return 0;
+		int supporting = Math.max(0, events - (pairs - 1));
+		double raw = Parameters.pairCountScore * pairs
+			+ Parameters.pairFractionScore * (pairs / (double)probeCount + pairs / (double)candidateCount) / 2
+			+ Parameters.supportedCountScore * pairs
+			+ Parameters.edgeCountScore * (pairs + 2 * supporting)
+			+ Parameters.correctTypeScore * pairs;
+		if (pairs >= 2) {
+			// 오차는 항상 inner radius 이상으로 계산된다.
+			int innerDistanceRadius = (int)Math.round(Parameters.distanceErrorFlatness * Parameters.maxDistanceError);
+			int innerAngleRadius = (int)Math.round(Parameters.angleErrorFlatness * Parameters.maxAngleError);
+			raw += Parameters.distanceAccuracyScore * (1 - innerDistanceRadius / (double)Parameters.maxDistanceError);
+			raw += Parameters.angleAccuracyScore * (1 - innerAngleRadius / Parameters.maxAngleError);
+		}
+		// 부동소수점 계산 순서 차이를 흡수하기 위한 여유
+		return shape(raw + 0.001);
+	}
 	private static double shape(double raw) {
 		if (raw < Parameters.thresholdMaxFMR)
 			return 0;
@@ -4,7 +4,10 @@ package com.machinezoo.sourceafis;
 import static java.util.stream.Collectors.*;
 import java.awt.image.*;
 import java.io.*;
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.stream.*;
 import javax.imageio.*;
 import com.google.gson.*;
@@ -12,14 +15,20 @@ import com.machinezoo.noexception.*;
 
 class TemplateBuilder {
 	FingerprintTransparency transparency = FingerprintTransparency.none;
+	// null이 아니면 블록 또는 픽셀 row 단위로 나누어 병렬로 처리한다.
+	Executor executor;
 	Cell size;
 	Minutia[] minutiae;
 	NeighborEdge[][] edges;
 	void extract(byte[] image, double dpi) {
-		// 지문 이미지에서 minutia를 추출하고 edge list구축
-
 		// 모든 픽셀을 grayscale로 만든 1차원 double array를 만듬
-		DoubleMap raw = readImage(image);
+		extract(readImage(image), dpi);
+	}
+	void extract(ByteBuffer gray, int width, int height, double dpi) {
+		extract(readGrayscale(gray, width, height), dpi);
+	}
+	private void extract(FloatMap raw, double dpi) {
+		// 지문 이미지에서 minutia를 추출하고 edge list구축
 		if (Math.abs(dpi - 500) > Parameters.dpiTolerance)
 			raw = scaleImage(raw, dpi);
 		//transparency.logScaledImage(raw);
@@ -38,7 +47,7 @@ class TemplateBuilder {
 
 		// 해당 서브블록에 대해 주위블록들과 관계를 스무스하게 하는 것같음
 		// 지문이 없는블록은 -1로 고정??
-		DoubleMap equalized = equalize(blocks, raw, smoothHistogram, mask);
+		FloatMap equalized = equalize(blocks, raw, smoothHistogram, mask);
 
 		// 모든 서브블록에 대해 진해지는 방향의 각도를 계산한다.
 		DoubleMap orientation = orientationMap(equalized, mask, blocks);
@@ -46,13 +55,13 @@ class TemplateBuilder {
 		// 리지의 경계선에 수직방향으로 평균을낸다 (해상도32)
 		// 진행방향으로 뭉개진다
 		Cell[][] smoothedLines = orientedLines(Parameters.parallelSmoothinigResolution, Parameters.parallelSmoothinigRadius, Parameters.parallelSmoothinigStep);
-		DoubleMap smoothed = smoothRidges(equalized, orientation, mask, blocks, 0, smoothedLines);
+		FloatMap smoothed = smoothRidges(equalized, orientation, mask, blocks, 0, smoothedLines);
 		//transparency.logParallelSmoothing(smoothed);
 
 		// 리지의 진행방향으로 평균을 낸다 (해상도11)
 		// 수직방향으로 뭉개진다
 		Cell[][] orthogonalLines = orientedLines(Parameters.orthogonalSmoothinigResolution, Parameters.orthogonalSmoothinigRadius, Parameters.orthogonalSmoothinigStep);
-		DoubleMap orthogonal = smoothRidges(smoothed, orientation, mask, blocks, Math.PI, orthogonalLines);
+		FloatMap orthogonal = smoothRidges(smoothed, orientation, mask, blocks, Math.PI, orthogonalLines);
 
 		//transparency.logOrthogonalSmoothing(orthogonal);
 		// 바이너리 이미지로 만듬
@@ -91,6 +100,15 @@ class TemplateBuilder {
 		transparency.logDeserializedMinutiae(this);
 		buildEdgeTable();
 	}
+	void deserialize(ByteBuffer binary) {
+		BinaryTemplate.deserialize(binary, this);
+		transparency.logDeserializedMinutiae(this);
+		// edge table이 같이 저장되어 있으면 다시 계산하지 않는다.
+		if (edges == null)
+			buildEdgeTable();
+		else
+			transparency.logEdgeTable(edges);
+	}
 	void convert(byte[] iso) {
 		if (iso.length < 30)
 			throw new IllegalArgumentException("Array too small to be an ISO 19794-2 template");
@@ -163,7 +181,34 @@ class TemplateBuilder {
 		shuffleMinutiae();
 		buildEdgeTable();
 	}
-	DoubleMap readImage(byte[] serialized) {
+	private void forRows(int count, IntConsumer row) {
+		// 각 단계는 row마다 서로 다른 데이터에 쓰고 같은 순서로 계산하므로 병렬로 처리해도 결과가 같다.
+		if (executor == null || count <= 1) {
+			for (int i = 0; i < count; ++i)
+				row.accept(i);
+			return;
+		}
+		int slices = FingerprintMatcher.slices(count, executor);
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < slices; ++i) {
+			int start = (int)((long)count * i / slices);
+			int end = (int)((long)count * (i + 1) / slices);
+			futures.add(CompletableFuture.runAsync(() -> {
+				for (int j = start; j < end; ++j)
+					row.accept(j);
+			}, executor));
+		}
+		for (CompletableFuture<Void> future : futures)
+			FingerprintMatcher.join(future);
+	}
+	private void forBlocks(BlockMap blocks, Consumer<Cell> body) {
+		// 블록 row 단위로 나눈다. 한 블록 row는 다른 블록 row와 픽셀 row를 공유하지 않는다.
+		forRows(blocks.primary.blocks.y, y -> {
+			for (int x = 0; x < blocks.primary.blocks.x; ++x)
+				body.accept(new Cell(x, y));
+		});
+	}
+	FloatMap readImage(byte[] serialized) {
 		BufferedImage buffered = Exceptions.sneak().get(() -> ImageIO.read(new ByteArrayInputStream(serialized)));
 		if (buffered == null)
 			throw new IllegalArgumentException("Unsupported image format");
@@ -175,7 +220,7 @@ class TemplateBuilder {
 		// pixels로 데이터를 읽어냄
 		buffered.getRGB(0, 0, width, height, pixels, 0, width);
 		// double형식의 공간 준비
-		DoubleMap map = new DoubleMap(width, height);
+		FloatMap map = new FloatMap(width, height);
 		// 모든 픽셀에 대해서 RGB를 분리한 후 grayscale image를 생성(그냥 평균???)
 		for (int y = 0; y < height; ++y) {
 			for (int x = 0; x < width; ++x) {
@@ -187,17 +232,34 @@ class TemplateBuilder {
 		transparency.logDecodedImage(map);
 		return map;
 	}
-	private DoubleMap scaleImage(DoubleMap input, double dpi) {
+	FloatMap readGrayscale(ByteBuffer gray, int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Image must have positive width and height");
+		if (gray.remaining() < (long)width * height)
+			throw new IllegalArgumentException("Buffer is too small for image of given size");
+		// readImage와 같은 식으로 계산한 table. R = G = B인 이미지를 읽은 것과 같은 값이 나온다.
+		double[] table = new double[256];
+		for (int i = 0; i < 256; ++i)
+			table[i] = 1 - 3 * i * (1.0 / (3.0 * 255.0));
+		FloatMap map = new FloatMap(width, height);
+		int start = gray.position();
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				map.set(x, y, table[gray.get(start + y * width + x) & 0xff]);
+		transparency.logDecodedImage(map);
+		return map;
+	}
+	private FloatMap scaleImage(FloatMap input, double dpi) {
 		return scaleImage(input, (int)Math.round(500.0 / dpi * input.width), (int)Math.round(500.0 / dpi * input.height));
 	}
-	private DoubleMap scaleImage(DoubleMap input, int newWidth, int newHeight) {
+	private FloatMap scaleImage(FloatMap input, int newWidth, int newHeight) {
 		// 이미지를 resize함
-		DoubleMap output = new DoubleMap(newWidth, newHeight);
+		FloatMap output = new FloatMap(newWidth, newHeight);
 		double scaleX = newWidth / (double)input.width;
 		double scaleY = newHeight / (double)input.height;
 		double descaleX = 1 / scaleX;
 		double descaleY = 1 / scaleY;
-		for (int y = 0; y < newHeight; ++y) {
+		forRows(newHeight, y -> {
 			double y1 = y * descaleY;
 			double y2 = y1 + descaleY;
 			int y1i = (int)y1;
@@ -220,13 +282,13 @@ class TemplateBuilder {
 				// 새 픽셀을 저장
 				output.set(x, y, sum * (scaleX * scaleY));
 			}
-		}
+		});
 		return output;
 	}
-	private Histogram histogram(BlockMap blocks, DoubleMap image) {
+	private Histogram histogram(BlockMap blocks, FloatMap image) {
 		// 모든 서브블록 별로 256개의 histogram을 구축한다.
 		Histogram histogram = new Histogram(blocks.primary.blocks, Parameters.histogramDepth);
-		for (Cell block : blocks.primary.blocks) {
+		forBlocks(blocks, block -> {
 			// 모든 15x15정도의 블록에 대해서 area block을 얻고
 			Block area = blocks.primary.block(block);
 			for (int y = area.top(); y < area.bottom(); ++y)
@@ -237,7 +299,7 @@ class TemplateBuilder {
 					// 해당 블록의 histogram ++
 					histogram.increment(block, histogram.constrain(depth));
 				}
-		}
+		});
 		transparency.logHistogram(histogram);
 		return histogram;
 	}
@@ -420,7 +482,7 @@ class TemplateBuilder {
 	private BooleanMap filterBlockErrors(BooleanMap input) {
 		return vote(input, null, Parameters.blockErrorsVoteRadius, Parameters.blockErrorsVoteMajority, Parameters.blockErrorsVoteBorderDistance);
 	}
-	private DoubleMap equalize(BlockMap blocks, DoubleMap image, Histogram histogram, BooleanMap blockMask) {
+	private FloatMap equalize(BlockMap blocks, FloatMap image, Histogram histogram, BooleanMap blockMask) {
 		final double rangeMin = -1;
 		final double rangeMax = 1;
 		final double rangeSize = rangeMax - rangeMin;
@@ -455,8 +517,8 @@ class TemplateBuilder {
 				}
 			}
 		}
-		DoubleMap result = new DoubleMap(blocks.pixels);
-		for (Cell block : blocks.primary.blocks) {
+		FloatMap result = new FloatMap(blocks.pixels);
+		forBlocks(blocks, block -> {
 			Block area = blocks.primary.block(block);
 			if (blockMask.get(block)) {
 				// 해당블록에 지문이 있으면
@@ -477,13 +539,13 @@ class TemplateBuilder {
 					for (int x = area.left(); x < area.right(); ++x)
 						result.set(x, y, -1);
 			}
-		}
+		});
 		transparency.logEqualizedImage(result);
 		return result;
 	}
-	private DoubleMap orientationMap(DoubleMap image, BooleanMap mask, BlockMap blocks) {
+	private DoubleMap orientationMap(FloatMap image, BooleanMap mask, BlockMap blocks) {
 		// 모든 픽셀에 대해 해당 픽셀에서 진해지는 쪽 방향 벡터를 생성
-		PointMap accumulated = pixelwiseOrientation(image, mask, blocks);
+		FloatPointMap accumulated = pixelwiseOrientation(image, mask, blocks);
 		// 서브블록 별로 방향벡터를 누적한다.
 		PointMap byBlock = blockOrientations(accumulated, blocks, mask);
 		// 하나 이웃인 모든 블록의 방향벡터를 누적한다.
@@ -539,13 +601,13 @@ class TemplateBuilder {
 		}
 		return splits;
 	}
-	private PointMap pixelwiseOrientation(DoubleMap input, BooleanMap mask, BlockMap blocks) {
+	private FloatPointMap pixelwiseOrientation(FloatMap input, BooleanMap mask, BlockMap blocks) {
 		// 50x20개의 난수방향 생성
 		ConsideredOrientation[][] neighbors = planOrientations();
 		// 모든 픽셀에 대해 방향을 가진 맵 생성
-		PointMap orientation = new PointMap(input.size());
-		// y방향 서브블록들에 대해
-		for (int blockY = 0; blockY < blocks.primary.blocks.y; ++blockY) {
+		FloatPointMap orientation = new FloatPointMap(input.size());
+		// y방향 서브블록들에 대해. 블록 row마다 서로 다른 픽셀 row에 쓰므로 병렬로 처리할 수 있다.
+		forRows(blocks.primary.blocks.y, blockY -> {
 			// 해당 row에서 실제 지문이 존재하는 영역을 계산
 			Range maskRange = maskRange(mask, blockY);
 			// 영역이 존재하면(빈row는 skip)
@@ -581,7 +643,7 @@ class TemplateBuilder {
 					}
 				}
 			}
-		}
+		});
 		transparency.logPixelwiseOrientation(orientation);
 		return orientation;
 	}
@@ -599,7 +661,7 @@ class TemplateBuilder {
 		else
 			return Range.zero;
 	}
-	private PointMap blockOrientations(PointMap orientation, BlockMap blocks, BooleanMap mask) {
+	private PointMap blockOrientations(FloatPointMap orientation, BlockMap blocks, BooleanMap mask) {
 		// 서브블록 크기의 맵을 생성
 		PointMap sums = new PointMap(blocks.primary.blocks);
 		// 모든 서브블록에 대해
@@ -672,11 +734,11 @@ class TemplateBuilder {
 		}
 		return result;
 	}
-	private static DoubleMap smoothRidges(DoubleMap input, DoubleMap orientation, BooleanMap mask, BlockMap blocks, double angle, Cell[][] lines) {
+	private FloatMap smoothRidges(FloatMap input, DoubleMap orientation, BooleanMap mask, BlockMap blocks, double angle, Cell[][] lines) {
 		// 모든 픽셀에 대해 output 공간을 할당
-		DoubleMap output = new DoubleMap(input.size());
-		// 모든 서브블록에 대해
-		for (Cell block : blocks.primary.blocks) {
+		FloatMap output = new FloatMap(input.size());
+		// 모든 서브블록에 대해. 블록마다 자기 영역의 픽셀에만 쓴다.
+		forBlocks(blocks, block -> {
 			// 지문이 존재하는 영역이면
 			if (mask.get(block)) {
 				// 해당 블록의 방향 + angle에 가장 근접한 라인 배열을 선택
@@ -703,14 +765,14 @@ class TemplateBuilder {
 					for (int x = blockArea.left(); x < blockArea.right(); ++x)
 						output.multiply(x, y, 1.0 / line.length);
 			}
-		}
+		});
 		return output;
 	}
-	private BooleanMap binarize(DoubleMap input, DoubleMap baseline, BooleanMap mask, BlockMap blocks) {
+	private BooleanMap binarize(FloatMap input, FloatMap baseline, BooleanMap mask, BlockMap blocks) {
 		Cell size = input.size();
 		// 전체 이미지 크기의 공간 확보
 		BooleanMap binarized = new BooleanMap(size);
-		for (Cell block : blocks.primary.blocks)
+		forBlocks(blocks, block -> {
 			if (mask.get(block)) {
 				Block rect = blocks.primary.block(block);
 				for (int y = rect.top(); y < rect.bottom(); ++y)
@@ -718,21 +780,20 @@ class TemplateBuilder {
 						if (input.get(x, y) - baseline.get(x, y) > 0)
 							binarized.set(x, y, true);
 			}
+		});
 		transparency.logBinarizedImage(binarized);
 		return binarized;
 	}
 	private void cleanupBinarized(BooleanMap binary, BooleanMap mask) {
-		Cell size = binary.size();
 		BooleanMap inverted = new BooleanMap(binary);
 		inverted.invert();
 		// 조그만 섬
 		BooleanMap islands = vote(inverted, mask, Parameters.binarizedVoteRadius, Parameters.binarizedVoteMajority, Parameters.binarizedVoteBorderDistance);
 		// 조그만 구멍
 		BooleanMap holes = vote(binary, mask, Parameters.binarizedVoteRadius, Parameters.binarizedVoteMajority, Parameters.binarizedVoteBorderDistance);
-		for (int y = 0; y < size.y; ++y)
-			for (int x = 0; x < size.x; ++x)
-				// 섬과 구멍을 제거
-				binary.set(x, y, binary.get(x, y) && !islands.get(x, y) || holes.get(x, y));
+		// 섬과 구멍을 제거
+		binary.subtract(islands);
+		binary.merge(holes);
 		// 대각선으로 다른 색깔인 경우 모두다 false로 만든다.
 		removeCrosses(binary);
 		transparency.logFilteredBinarydImage(binary);
@@ -742,40 +803,56 @@ class TemplateBuilder {
 		boolean any = true;
 		while (any) {
 			any = false;
-			for (int y = 0; y < size.y - 1; ++y)
-				for (int x = 0; x < size.x - 1; ++x)
-					if (input.get(x, y) && input.get(x + 1, y + 1) && !input.get(x, y + 1) && !input.get(x + 1, y)
-						|| input.get(x, y + 1) && input.get(x + 1, y) && !input.get(x, y) && !input.get(x + 1, y + 1)) {
+			for (int y = 0; y < size.y - 1; ++y) {
+				// 바로 왼쪽 cross를 지우면 x의 두 픽셀이 false가 되므로 x는 cross가 될 수 없다.
+				// 나머지 cross는 지우기 전의 word로 한꺼번에 찾아도 픽셀 단위로 왼쪽부터 찾을 때와 같다.
+				int last = -2;
+				for (int index = 0; index < input.stride(); ++index) {
+					long top = input.word(y, index);
+					long bottom = input.word(y + 1, index);
+					long topRight = input.shifted(y, index, 1);
+					long bottomRight = input.shifted(y + 1, index, 1);
+					long crosses = top & bottomRight & ~bottom & ~topRight | bottom & topRight & ~top & ~bottomRight;
+					for (; crosses != 0; crosses &= crosses - 1) {
+						int x = (index << 6) + Long.numberOfTrailingZeros(crosses);
+						if (x == last + 1)
+							continue;
 						input.set(x, y, false);
 						input.set(x, y + 1, false);
 						input.set(x + 1, y, false);
 						input.set(x + 1, y + 1, false);
+						last = x;
 						any = true;
 					}
+				}
+			}
 		}
 	}
 	private static BooleanMap fillBlocks(BooleanMap mask, BlockMap blocks) {
 		BooleanMap pixelized = new BooleanMap(blocks.pixels);
 		for (Cell block : blocks.primary.blocks)
-			if (mask.get(block))
-				for (Cell pixel : blocks.primary.block(block))
-					pixelized.set(pixel, true);
+			if (mask.get(block)) {
+				Block area = blocks.primary.block(block);
+				for (int y = area.top(); y < area.bottom(); ++y)
+					pixelized.fill(y, area.left(), area.right());
+			}
 		return pixelized;
 	}
 	private static BooleanMap invert(BooleanMap binary, BooleanMap mask) {
-		Cell size = binary.size();
-		BooleanMap inverted = new BooleanMap(size);
-		for (int y = 0; y < size.y; ++y)
-			for (int x = 0; x < size.x; ++x)
-				inverted.set(x, y, !binary.get(x, y) && mask.get(x, y));
+		BooleanMap inverted = new BooleanMap(mask);
+		inverted.subtract(binary);
 		return inverted;
 	}
 	private BooleanMap innerMask(BooleanMap outer) {
 		Cell size = outer.size();
 		BooleanMap inner = new BooleanMap(size);
-		for (int y = 1; y < size.y - 1; ++y)
-			for (int x = 1; x < size.x - 1; ++x)
-				inner.set(x, y, outer.get(x, y));
+		// 가장자리 1 픽셀을 뺀 나머지를 복사
+		for (int y = 1; y < size.y - 1; ++y) {
+			for (int index = 0; index < inner.stride(); ++index)
+				inner.setWord(y, index, outer.word(y, index));
+			inner.set(0, y, false);
+			inner.set(size.x - 1, y, false);
+		}
 		if (Parameters.innerMaskBorderDistance >= 1)
 			inner = shrinkMask(inner, 1);
 		int total = 1;
@@ -791,9 +868,10 @@ class TemplateBuilder {
 	private static BooleanMap shrinkMask(BooleanMap mask, int amount) {
 		Cell size = mask.size();
 		BooleanMap shrunk = new BooleanMap(size);
+		// 맵 밖은 false로 읽히므로 가장자리 amount 픽셀은 저절로 false가 된다.
 		for (int y = amount; y < size.y - amount; ++y)
-			for (int x = amount; x < size.x - amount; ++x)
-				shrunk.set(x, y, mask.get(x, y - amount) && mask.get(x, y + amount) && mask.get(x - amount, y) && mask.get(x + amount, y));
+			for (int index = 0; index < mask.stride(); ++index)
+				shrunk.setWord(y, index, mask.word(y - amount, index) & mask.word(y + amount, index) & mask.shifted(y, index, -amount) & mask.shifted(y, index, amount));
 		return shrunk;
 	}
 	private void collectMinutiae(Skeleton skeleton, MinutiaType type) {
@@ -0,0 +1,40 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+
+class TopMatches {
+	// 가장 나쁜 결과가 맨 앞에 오도록 정렬한다. 점수가 같으면 gallery에서 뒤쪽에 있는 것이 더 나쁘다.
+	private static final Comparator<FingerprintMatch> worstFirst = Comparator
+		.comparingDouble(FingerprintMatch::score)
+		.thenComparing(Comparator.comparingInt(FingerprintMatch::index).reversed());
+	final int limit;
+	private final PriorityQueue<FingerprintMatch> heap;
+	TopMatches(int limit) {
+		this.limit = limit;
+		heap = new PriorityQueue<>(Math.max(1, limit), worstFirst);
+	}
+	void add(FingerprintMatch match) {
+		if (heap.size() < limit)
+			heap.add(match);
+		else if (limit > 0 && worstFirst.compare(match, heap.peek()) > 0) {
+			heap.remove();
+			heap.add(match);
+		}
+	}
+	double cutoff() {
+		// 이보다 낮은 점수는 결과에 들어갈 수 없다. 같은 점수는 gallery에서 뒤쪽이므로 역시 들어갈 수 없다.
+		if (limit == 0)
+			return Double.POSITIVE_INFINITY;
+		return heap.size() < limit ? Double.NEGATIVE_INFINITY : heap.peek().score();
+	}
+	void merge(TopMatches other) {
+		for (FingerprintMatch match : other.heap)
+			add(match);
+	}
+	List<FingerprintMatch> sorted() {
+		List<FingerprintMatch> list = new ArrayList<>(heap);
+		list.sort(worstFirst.reversed());
+		return list;
+	}
+}
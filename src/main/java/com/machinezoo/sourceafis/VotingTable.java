@@ -0,0 +1,89 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import java.util.*;
+import gnu.trove.list.array.*;
+
+class VotingTable {
+	// 방향은 256단계로 양자화하고 회전 histogram은 16칸(22.5도)을 쓴다.
+	static final int rotationBins = 16;
+	// 한 번에 투표하는 template 수. template마다 histogram이 있으므로 cache에 들어가는 만큼만 모은다.
+	private static final int block = 1024;
+	// probe star edge의 오차 범위를 포함한 hash -> 그 edge의 reference minutia
+	private final HashBuckets buckets;
+	// probe minutia의 양자화된 방향
+	private final byte[] directions;
+	// gallery에도 있는 probe key. probe bucket 번호와 gallery key 번호의 쌍이다.
+	private final int[] probeKeys;
+	private final int[] galleryKeys;
+	private final EdgePostings postings;
+	VotingTable(ImmutableTemplate probe, EdgePostings postings) {
+		this.postings = postings;
+		TIntArrayList hashes = new TIntArrayList();
+		TIntArrayList serials = new TIntArrayList();
+		int[] coverage = new int[EdgeHash.maxCoverage];
+		directions = new byte[probe.minutiaCount()];
+		for (int reference = 0; reference < probe.minutiaCount(); ++reference) {
+			directions[reference] = quantize(probe.minutiaDirection(reference));
+			for (int edge = probe.starStart(reference); edge < probe.starEnd(reference); ++edge) {
+				int count = EdgeHash.coverage(probe.edgeLength(edge), probe.edgeReferenceAngle(edge), probe.edgeNeighborAngle(edge), coverage);
+				for (int i = 0; i < count; ++i) {
+					hashes.add(coverage[i]);
+					serials.add(reference);
+				}
+			}
+		}
+		buckets = new HashBuckets(hashes, serials);
+		TIntArrayList matchedProbe = new TIntArrayList();
+		TIntArrayList matchedGallery = new TIntArrayList();
+		for (int bucket = 0; bucket < buckets.keys.length; ++bucket) {
+			int key = postings.find(buckets.keys[bucket]);
+			if (key >= 0) {
+				matchedProbe.add(bucket);
+				matchedGallery.add(key);
+			}
+		}
+		probeKeys = matchedProbe.toArray();
+		galleryKeys = matchedGallery.toArray();
+	}
+	static byte quantize(double direction) {
+		return (byte)Angle.quantize(direction, 256);
+	}
+	void vote(int start, int end, int[] votes) {
+		// gallery edge와 probe edge의 모양이 같으면 두 edge의 방향 차이(회전)에 투표한다.
+		// 진짜 일치하는 지문은 한 회전 값에 표가 몰린다.
+		// posting list는 template 순서이므로 key마다 cursor를 두고 template block 단위로 전진한다.
+		long[] cursors = new long[galleryKeys.length];
+		for (int i = 0; i < galleryKeys.length; ++i)
+			cursors[i] = postings.seek(galleryKeys[i], start);
+		int[] histogram = new int[Math.min(block, end - start) * rotationBins];
+		for (int first = start; first < end; first += block) {
+			int last = Math.min(end, first + block);
+			Arrays.fill(histogram, 0, (last - first) * rotationBins, 0);
+			for (int i = 0; i < galleryKeys.length; ++i) {
+				long limit = postings.offsets[galleryKeys[i] + 1];
+				int from = buckets.offsets[probeKeys[i]];
+				int to = buckets.offsets[probeKeys[i] + 1];
+				long posting = cursors[i];
+				for (; posting < limit; ++posting) {
+					int template = postings.templates.get(posting);
+					if (template >= last)
+						break;
+					int direction = EdgePostings.direction(postings.pairs.get(posting));
+					int row = (template - first) * rotationBins;
+					for (int j = from; j < to; ++j)
+						++histogram[row + (((direction - directions[buckets.postings[j]]) & 0xff) * rotationBins >>> 8)];
+				}
+				cursors[i] = posting;
+			}
+			// 경계에 걸친 회전을 위해 이웃한 두 칸을 합친다.
+			for (int template = first; template < last; ++template) {
+				int row = (template - first) * rotationBins;
+				int best = 0;
+				for (int bin = 0; bin < rotationBins; ++bin)
+					best = Math.max(best, histogram[row + bin] + histogram[row + (bin + 1) % rotationBins]);
+				votes[template] = best;
+			}
+		}
+	}
+}
@@ -96,4 +96,76 @@ public class BooleanMapTest {
 			for (int y = 0; y < m.height; ++y)
 				assertEquals((x + y) % 2 > 0 || x < 2 && y < 3, m.get(x, y));
 	}
+	private static BooleanMap wide() {
+		BooleanMap w = new BooleanMap(130, 3);
+		for (int x = 0; x < w.width; ++x)
+			for (int y = 0; y < w.height; ++y)
+				w.set(x, y, (x * 7 + y) % 3 == 0);
+		return w;
+	}
+	@Test public void wideGetSet() {
+		BooleanMap w = wide();
+		for (int x = 0; x < w.width; ++x)
+			for (int y = 0; y < w.height; ++y)
+				assertEquals((x * 7 + y) % 3 == 0, w.get(x, y));
+		w.set(64, 1, false);
+		w.set(129, 1, true);
+		assertEquals(false, w.get(64, 1));
+		assertEquals(true, w.get(129, 1));
+		assertEquals(true, w.get(63, 0));
+		assertEquals(false, w.get(0, 2));
+	}
+	@Test public void wideInvert() {
+		BooleanMap w = wide();
+		w.invert();
+		for (int x = 0; x < w.width; ++x)
+			for (int y = 0; y < w.height; ++y)
+				assertEquals((x * 7 + y) % 3 != 0, w.get(x, y));
+		// 행 끝의 남는 bit는 0으로 남아야 한다.
+		assertEquals(0, w.word(0, 2) >>> 2);
+		assertEquals(false, w.get(130, 0, false));
+	}
+	@Test public void subtract() {
+		BooleanMap w = wide();
+		BooleanMap o = new BooleanMap(130, 3);
+		for (int x = 0; x < w.width; ++x)
+			for (int y = 0; y < w.height; ++y)
+				o.set(x, y, x > 60 && y > 0);
+		w.subtract(o);
+		for (int x = 0; x < w.width; ++x)
+			for (int y = 0; y < w.height; ++y)
+				assertEquals((x * 7 + y) % 3 == 0 && !(x > 60 && y > 0), w.get(x, y));
+	}
+	@Test public void shifted() {
+		BooleanMap w = wide();
+		for (int dx : new int[] { -130, -65, -64, -3, -1, 0, 1, 5, 64, 70, 129 })
+			for (int y = 0; y < w.height; ++y)
+				for (int index = 0; index < w.stride(); ++index)
+					for (int bit = 0; bit < 64; ++bit) {
+						int x = 64 * index + bit;
+						assertEquals(w.get(x + dx, y, false), (w.shifted(y, index, dx) >>> bit & 1) != 0);
+					}
+	}
+	@Test public void fill() {
+		BooleanMap w = new BooleanMap(130, 3);
+		w.fill(1, 3, 5);
+		w.fill(1, 60, 129);
+		w.fill(2, 0, 130);
+		for (int x = 0; x < w.width; ++x) {
+			assertEquals(false, w.get(x, 0));
+			assertEquals(x >= 3 && x < 5 || x >= 60 && x < 129, w.get(x, 1));
+			assertEquals(true, w.get(x, 2));
+		}
+		assertEquals(0, w.word(2, 2) >>> 2);
+	}
+	@Test public void setWord() {
+		BooleanMap w = new BooleanMap(130, 3);
+		w.setWord(1, 1, -1L);
+		w.setWord(1, 2, -1L);
+		for (int x = 0; x < w.width; ++x)
+			assertEquals(x >= 64, w.get(x, 1));
+		assertEquals(3, w.word(1, 2));
+		assertEquals(0, w.word(-1, 0));
+		assertEquals(0, w.word(1, 3));
+	}
 }
@@ -0,0 +1,26 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class EdgeHashTest {
+	@Test public void lookup() {
+		EdgeHash hash = new EdgeHash(FingerprintTemplateTest.probe().immutable);
+		assertTrue(hash.keys.length > 0);
+		for (int i = 0; i < hash.keys.length; ++i) {
+			if (i > 0)
+				assertTrue(hash.keys[i - 1] < hash.keys[i]);
+			assertEquals(i, hash.find(hash.keys[i]));
+			assertTrue(hash.offsets[i] < hash.offsets[i + 1]);
+			for (int posting = hash.offsets[i] + 1; posting < hash.offsets[i + 1]; ++posting)
+				assertTrue(hash.postings[posting - 1] < hash.postings[posting]);
+		}
+		assertEquals(hash.postings.length, hash.offsets[hash.keys.length]);
+		assertEquals(-1, hash.find(Integer.MAX_VALUE));
+	}
+	@Test public void empty() {
+		assertEquals(0, EdgeHash.empty.keys.length);
+		assertEquals(-1, EdgeHash.empty.find(0));
+	}
+}
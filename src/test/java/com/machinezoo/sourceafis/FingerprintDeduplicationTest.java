@@ -0,0 +1,87 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import static org.junit.Assert.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.*;
+import org.junit.rules.*;
+
+public class FingerprintDeduplicationTest {
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+	private static List<FingerprintTemplate> collection() {
+		// block 크기보다 많은 template으로 여러 block을 만든다.
+		List<FingerprintTemplate> templates = new ArrayList<>();
+		FingerprintTemplate[] sources = { FingerprintTemplateTest.probe(), FingerprintTemplateTest.nonmatching(), FingerprintTemplateTest.matching(), FingerprintTemplateTest.nonmatchingIso() };
+		for (int i = 0; i < 40; ++i)
+			templates.add(sources[i % sources.length]);
+		return templates;
+	}
+	private static Set<String> pairs(List<FingerprintDuplicate> duplicates) {
+		Set<String> pairs = new HashSet<>();
+		for (FingerprintDuplicate duplicate : duplicates)
+			pairs.add(duplicate.first() + ":" + duplicate.second() + "@" + duplicate.score());
+		return pairs;
+	}
+	@Test public void allPairs() {
+		List<FingerprintTemplate> templates = collection();
+		List<FingerprintDuplicate> found = new FingerprintDeduplication(templates).threshold(40).run();
+		List<FingerprintDuplicate> expected = new ArrayList<>();
+		for (int i = 0; i < templates.size(); ++i) {
+			FingerprintMatcher matcher = new FingerprintMatcher().index(templates.get(i));
+			for (int j = i + 1; j < templates.size(); ++j) {
+				double score = matcher.match(templates.get(j));
+				if (score >= 40)
+					expected.add(new FingerprintDuplicate(i, j, score));
+			}
+		}
+		assertEquals(expected.size(), found.size());
+		assertEquals(pairs(expected), pairs(found));
+		for (FingerprintDuplicate duplicate : found)
+			assertTrue(duplicate.first() < duplicate.second());
+	}
+	@Test public void resume() throws Exception {
+		List<FingerprintTemplate> templates = collection();
+		Set<String> all = pairs(new FingerprintDeduplication(templates).run());
+		Path checkpoint = folder.getRoot().toPath().resolve("dedup.checkpoint");
+		List<FingerprintDuplicate> before = new ArrayList<>();
+		try {
+			// 두 번째 block에서 중단시킨다.
+			new FingerprintDeduplication(templates).checkpoint(checkpoint).run(d -> {
+				if (d.first() >= 32)
+					throw new IllegalStateException();
+				before.add(d);
+			});
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertTrue(Files.exists(checkpoint));
+		List<FingerprintDuplicate> after = new FingerprintDeduplication(templates).checkpoint(checkpoint).run();
+		assertFalse(after.isEmpty());
+		for (FingerprintDuplicate duplicate : after)
+			assertTrue(duplicate.first() >= 32);
+		Set<String> resumed = pairs(before);
+		resumed.addAll(pairs(after));
+		assertEquals(all, resumed);
+		// 완료된 작업은 다시 실행해도 결과가 없다.
+		assertTrue(new FingerprintDeduplication(templates).checkpoint(checkpoint).run().isEmpty());
+	}
+	@Test(expected = IllegalArgumentException.class) public void foreignCheckpoint() {
+		Path checkpoint = folder.getRoot().toPath().resolve("dedup.checkpoint");
+		new FingerprintDeduplication(collection()).checkpoint(checkpoint).run();
+		new FingerprintDeduplication(collection().subList(0, 10)).checkpoint(checkpoint).run();
+	}
+	@Test(expected = IllegalArgumentException.class) public void sameSizeCollection() {
+		Path checkpoint = folder.getRoot().toPath().resolve("dedup.checkpoint");
+		List<FingerprintTemplate> templates = collection();
+		new FingerprintDeduplication(templates).checkpoint(checkpoint).run();
+		// 크기는 같고 순서만 다른 collection
+		Collections.reverse(templates);
+		new FingerprintDeduplication(templates).checkpoint(checkpoint).run();
+	}
+	@Test(expected = IllegalArgumentException.class) public void differentThreshold() {
+		Path checkpoint = folder.getRoot().toPath().resolve("dedup.checkpoint");
+		new FingerprintDeduplication(collection()).checkpoint(checkpoint).run();
+		new FingerprintDeduplication(collection()).threshold(30).checkpoint(checkpoint).run();
+	}
+}
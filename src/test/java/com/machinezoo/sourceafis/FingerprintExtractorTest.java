@@ -0,0 +1,95 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import static org.junit.Assert.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.junit.*;
+
+public class FingerprintExtractorTest {
+	private static final String[] names = { "probe.png", "matching.png", "nonmatching.png" };
+	private static List<FingerprintImage> images(int count) {
+		List<FingerprintImage> images = new ArrayList<>();
+		for (int i = 0; i < count; ++i)
+			images.add(new FingerprintImage(FingerprintTemplateTest.load(names[i % names.length])).dpi(i % 2 == 0 ? 500 : 600));
+		return images;
+	}
+	private static String expected(int index) {
+		return new FingerprintTemplate().dpi(index % 2 == 0 ? 500 : 600).create(FingerprintTemplateTest.load(names[index % names.length])).serialize();
+	}
+	@Test public void ordered() {
+		Iterator<FingerprintTemplate> templates = new FingerprintExtractor().concurrency(2).extract(images(7).iterator());
+		for (int i = 0; i < 7; ++i) {
+			assertTrue(templates.hasNext());
+			assertEquals(expected(i), templates.next().serialize());
+		}
+		assertFalse(templates.hasNext());
+	}
+	@Test public void unordered() {
+		Map<Integer, String> found = new HashMap<>();
+		new FingerprintExtractor().extract(images(7).iterator(), (template, index) -> assertNull(found.put(index, template.serialize())));
+		assertEquals(7, found.size());
+		for (int i = 0; i < 7; ++i)
+			assertEquals(expected(i), found.get(i));
+	}
+	@Test public void concurrency() {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		List<FingerprintImage> images = new ArrayList<>();
+		for (int i = 0; i < 8; ++i) {
+			// 실행 중인 추출 수를 센다.
+			images.add(new FingerprintImage(FingerprintTemplateTest.load(names[i % names.length])) {
+				@Override FingerprintTemplate extract() {
+					peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+					try {
+						return super.extract();
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			});
+		}
+		try {
+			List<Integer> order = new ArrayList<>();
+			new FingerprintExtractor().executor(pool).concurrency(2).extract(images.iterator(), (template, index) -> order.add(index));
+			assertEquals(8, order.size());
+			assertTrue(peak.get() <= 2);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	@Test public void lazy() {
+		// 소비하지 않으면 최대 concurrency개만 읽는다.
+		AtomicInteger read = new AtomicInteger();
+		Iterator<FingerprintImage> source = images(10).iterator();
+		Iterator<FingerprintImage> counted = new Iterator<FingerprintImage>() {
+			@Override public boolean hasNext() {
+				return source.hasNext();
+			}
+			@Override public FingerprintImage next() {
+				read.incrementAndGet();
+				return source.next();
+			}
+		};
+		Iterator<FingerprintTemplate> templates = new FingerprintExtractor().executor(Runnable::run).concurrency(3).extract(counted);
+		assertEquals(0, read.get());
+		templates.next();
+		assertTrue(read.get() <= 12);
+		int count = 1;
+		while (templates.hasNext()) {
+			templates.next();
+			++count;
+		}
+		assertEquals(10, count);
+	}
+	@Test(expected = IllegalArgumentException.class) public void badImage() {
+		List<FingerprintImage> images = images(2);
+		images.add(new FingerprintImage(new byte[100]));
+		Iterator<FingerprintTemplate> templates = new FingerprintExtractor().extract(images.iterator());
+		templates.next();
+		templates.next();
+		templates.next();
+	}
+}
@@ -0,0 +1,97 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import static org.junit.Assert.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+import org.junit.*;
+import org.junit.rules.*;
+
+public class FingerprintGalleryTest {
+	@Rule public TemporaryFolder folder = new TemporaryFolder();
+	private List<FingerprintTemplate> templates() {
+		return Arrays.asList(
+			FingerprintTemplateTest.nonmatching(),
+			FingerprintTemplateTest.probe(),
+			FingerprintTemplateTest.matching(),
+			FingerprintTemplateTest.nonmatchingIso(),
+			FingerprintTemplateTest.matchingIso());
+	}
+	private Path write(List<FingerprintTemplate> templates) throws Exception {
+		Path path = folder.newFile().toPath();
+		FingerprintGallery.write(path, templates);
+		return path;
+	}
+	@Test public void roundTrip() throws Exception {
+		List<FingerprintTemplate> templates = templates();
+		FingerprintGallery gallery = FingerprintGallery.open(write(templates));
+		assertEquals(templates.size(), gallery.size());
+		for (int i = 0; i < templates.size(); ++i)
+			assertEquals(templates.get(i).serialize(), gallery.get(i).serialize());
+	}
+	@Test public void segments() throws Exception {
+		List<FingerprintTemplate> templates = templates();
+		// 작은 segment 크기로 template마다 별도 mapping이 생기게 한다.
+		FingerprintGallery gallery = FingerprintGallery.open(write(templates), 40_000);
+		for (int i = 0; i < templates.size(); ++i)
+			assertEquals(templates.get(i).serialize(), gallery.get(i).serialize());
+	}
+	@Test public void search() throws Exception {
+		List<FingerprintTemplate> templates = templates();
+		FingerprintGallery gallery = FingerprintGallery.open(write(templates));
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		List<FingerprintMatch> heap = matcher.search(templates, 10, 0);
+		List<FingerprintMatch> mapped = matcher.search(gallery, 10, 0);
+		assertEquals(heap.size(), mapped.size());
+		for (int i = 0; i < heap.size(); ++i) {
+			assertEquals(heap.get(i).index(), mapped.get(i).index());
+			assertEquals(heap.get(i).score(), mapped.get(i).score(), 0);
+			assertEquals(heap.get(i).template().serialize(), mapped.get(i).template().serialize());
+		}
+		List<FingerprintMatch> found = matcher.search(gallery, 1, 40);
+		assertEquals(1, found.size());
+		assertEquals(1, found.get(0).index());
+		assertTrue(matcher.search(gallery, 0, 0).isEmpty());
+	}
+	@Test public void empty() throws Exception {
+		FingerprintGallery gallery = FingerprintGallery.open(write(Collections.emptyList()));
+		assertEquals(0, gallery.size());
+		assertTrue(new FingerprintMatcher().index(FingerprintTemplateTest.probe()).search(gallery, 10, 0).isEmpty());
+	}
+	// 손상된 gallery 파일
+	private Path corrupt(Consumer<ByteBuffer> damage) throws Exception {
+		Path path = write(templates());
+		ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		damage.accept(file);
+		Files.write(path, file.array());
+		return path;
+	}
+	@Test(expected = IllegalArgumentException.class) public void rejectsLargeEdgeCount() throws Exception {
+		FingerprintGallery gallery = FingerprintGallery.open(corrupt(file -> {
+			int offset = (int)file.getLong(16 + 8);
+			file.putInt(offset + 20, file.getInt(offset + 20) + 1000);
+		}));
+		// 결과가 없는 threshold로 get()을 거치지 않고 매칭에서 읽는 경로만 확인한다.
+		new FingerprintMatcher().index(FingerprintTemplateTest.probe()).search(gallery, 10, 1000, Runnable::run);
+	}
+	@Test(expected = IllegalArgumentException.class) public void rejectsShortSlot() throws Exception {
+		// offset table에서 마지막 template의 끝이 template보다 앞에 있다.
+		FingerprintGallery gallery = FingerprintGallery.open(corrupt(file -> file.putLong(16 + 5 * 8, file.getLong(16 + 4 * 8) + 64)));
+		new FingerprintMatcher().index(FingerprintTemplateTest.probe()).search(gallery, 10, 1000, Runnable::run);
+	}
+	@Test(expected = IllegalArgumentException.class) public void rejectsCorruptStars() throws Exception {
+		FingerprintGallery gallery = FingerprintGallery.open(corrupt(file -> {
+			int offset = (int)file.getLong(16 + 8);
+			int at = offset + BinaryTemplate.starOffset(file.getInt(offset + 16), file.getInt(offset + 20));
+			file.putInt(at, 1);
+		}));
+		new FingerprintMatcher().index(FingerprintTemplateTest.probe()).search(gallery, 10, 1000, Runnable::run);
+	}
+	@Test(expected = IllegalArgumentException.class) public void rejectsJunk() throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, new byte[100]);
+		FingerprintGallery.open(path);
+	}
+}
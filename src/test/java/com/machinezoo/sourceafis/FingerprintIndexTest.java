@@ -0,0 +1,77 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import static org.junit.Assert.*;
+import java.util.*;
+import org.junit.*;
+
+public class FingerprintIndexTest {
+	private List<FingerprintTemplate> gallery() {
+		List<FingerprintTemplate> gallery = new ArrayList<>();
+		for (int i = 0; i < 20; ++i)
+			gallery.add(i == 13 ? FingerprintTemplateTest.matching() : i % 2 == 0 ? FingerprintTemplateTest.nonmatching() : FingerprintTemplateTest.nonmatchingIso());
+		return gallery;
+	}
+	private FingerprintIndex index(List<FingerprintTemplate> gallery) {
+		return index(new FingerprintIndex(), gallery);
+	}
+	private FingerprintIndex index(FingerprintIndex index, List<FingerprintTemplate> gallery) {
+		for (FingerprintTemplate template : gallery)
+			index.add(template);
+		return index;
+	}
+	@Test public void search() {
+		List<FingerprintTemplate> gallery = gallery();
+		FingerprintIndex index = index(gallery);
+		assertEquals(gallery.size(), index.size());
+		assertSame(gallery.get(13).immutable, index.get(13).immutable);
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		List<FingerprintMatch> found = matcher.search(index.shortlist(0.1), 1, 40);
+		assertEquals(1, found.size());
+		assertEquals(13, found.get(0).index());
+		assertSame(gallery.get(13).immutable, found.get(0).template().immutable);
+		assertEquals(matcher.match(gallery.get(13)), found.get(0).score(), 0);
+	}
+	@Test public void fullShortlist() {
+		List<FingerprintTemplate> gallery = gallery();
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		List<FingerprintMatch> linear = matcher.search(gallery, 5, 0);
+		List<FingerprintMatch> indexed = matcher.search(index(gallery).shortlist(1), 5, 0);
+		assertEquals(linear.size(), indexed.size());
+		for (int i = 0; i < linear.size(); ++i) {
+			assertEquals(linear.get(i).index(), indexed.get(i).index());
+			assertEquals(linear.get(i).score(), indexed.get(i).score(), 0);
+		}
+	}
+	@Test public void shortlistSize() {
+		FingerprintIndex index = index(gallery()).shortlist(0.1);
+		ImmutableTemplate probe = FingerprintTemplateTest.probe().immutable;
+		assertEquals(2, index.shortlist(probe, 1, Runnable::run).length);
+		assertEquals(5, index.shortlist(probe, 5, Runnable::run).length);
+		assertEquals(20, index.shortlist(probe, 100, Runnable::run).length);
+		int[] shortlist = index.shortlist(probe, 1, Runnable::run);
+		assertTrue(Arrays.stream(shortlist).anyMatch(n -> n == 13));
+		assertEquals(0, new FingerprintIndex().shortlist(probe, 10, Runnable::run).length);
+	}
+	@Test public void segments() {
+		// posting이 여러 segment에 걸쳐도 투표 결과가 같아야 한다.
+		List<FingerprintTemplate> gallery = gallery();
+		ImmutableTemplate probe = FingerprintTemplateTest.probe().immutable;
+		int[] expected = index(gallery).shortlist(0.25).shortlist(probe, 1, Runnable::run);
+		assertArrayEquals(expected, index(new FingerprintIndex(4), gallery).shortlist(0.25).shortlist(probe, 1, Runnable::run));
+	}
+	@Test public void addAfterSearch() {
+		List<FingerprintTemplate> gallery = gallery();
+		ImmutableTemplate probe = FingerprintTemplateTest.probe().immutable;
+		int[] expected = index(gallery).shortlist(0.25).shortlist(probe, 1, Runnable::run);
+		FingerprintIndex index = index(gallery.subList(0, 7)).shortlist(0.25);
+		index.shortlist(probe, 1, Runnable::run);
+		index(index, gallery.subList(7, 15));
+		index.shortlist(probe, 1, Runnable::run);
+		index(index, gallery.subList(15, 20));
+		assertArrayEquals(expected, index.shortlist(probe, 1, Runnable::run));
+	}
+	@Test(expected = IllegalArgumentException.class) public void badFraction() {
+		new FingerprintIndex().shortlist(1.5);
+	}
+}
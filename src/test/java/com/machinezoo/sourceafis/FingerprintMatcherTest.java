@@ -2,6 +2,8 @@
 package com.machinezoo.sourceafis;
 
 import static org.junit.Assert.*;
+import java.util.*;
+import java.util.concurrent.*;
 import org.junit.*;
 
 public class FingerprintMatcherTest {
@@ -25,4 +27,296 @@ public class FingerprintMatcherTest {
 		double score = matcher.match(FingerprintTemplateTest.nonmatchingIso());
 		assertTrue("Score: " + score, score < 20);
 	}
+	@Test public void matchThreshold() {
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		FingerprintTemplate matching = FingerprintTemplateTest.matching();
+		FingerprintTemplate nonmatching = FingerprintTemplateTest.nonmatching();
+		double full = matcher.match(matching);
+		double early = matcher.match(matching, 40);
+		assertTrue("Score: " + early, early >= 40 && early <= full);
+		assertEquals(full, matcher.match(matching, Double.POSITIVE_INFINITY), 0);
+		assertEquals(matcher.match(nonmatching), matcher.match(nonmatching, 40), 0);
+		assertTrue(matcher.matches(matching, 40));
+		assertFalse(matcher.matches(nonmatching, 40));
+		assertEquals(full >= 1000, matcher.matches(matching, 1000));
+	}
+	@Test public void matchSession() {
+		FingerprintMatchSession session = new FingerprintMatchSession();
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		FingerprintMatcher iso = new FingerprintMatcher().index(FingerprintTemplateTest.probeIso());
+		for (int i = 0; i < 2; ++i) {
+			assertEquals(matcher.match(FingerprintTemplateTest.matching()), matcher.match(FingerprintTemplateTest.matching(), session), 0);
+			assertEquals(matcher.match(FingerprintTemplateTest.nonmatching()), matcher.match(FingerprintTemplateTest.nonmatching(), session), 0);
+			assertEquals(iso.match(FingerprintTemplateTest.matchingIso()), iso.match(FingerprintTemplateTest.matchingIso(), session), 0);
+		}
+		assertTrue(matcher.match(FingerprintTemplateTest.matching(), 40, session) >= 40);
+		assertEquals(matcher.match(FingerprintTemplateTest.nonmatching()), matcher.match(FingerprintTemplateTest.nonmatching(), 40, session), 0);
+	}
+	@Test public void matchExecutor() {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for (FingerprintTemplate probe : Arrays.asList(FingerprintTemplateTest.probe(), FingerprintTemplateTest.probeIso())) {
+				FingerprintMatcher matcher = new FingerprintMatcher().index(probe);
+				for (FingerprintTemplate candidate : Arrays.asList(
+					FingerprintTemplateTest.probe(),
+					FingerprintTemplateTest.matching(),
+					FingerprintTemplateTest.nonmatching(),
+					FingerprintTemplateTest.matchingIso(),
+					FingerprintTemplateTest.nonmatchingIso())) {
+					assertEquals(matcher.match(candidate), matcher.match(candidate, executor), 0);
+					assertEquals(matcher.match(candidate), matcher.match(candidate, Runnable::run), 0);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	@Test public void search() {
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		FingerprintTemplate matching = FingerprintTemplateTest.matching();
+		FingerprintTemplate nonmatching = FingerprintTemplateTest.nonmatching();
+		List<FingerprintTemplate> gallery = Arrays.asList(nonmatching, matching, nonmatching, nonmatching);
+		List<FingerprintMatch> found = matcher.search(gallery, 10, 0);
+		assertEquals(4, found.size());
+		assertSame(matching, found.get(0).template());
+		assertEquals(matcher.match(matching), found.get(0).score(), 0);
+		for (int i = 1; i < found.size(); ++i)
+			assertTrue(found.get(i - 1).score() >= found.get(i).score());
+		found = matcher.search(gallery, 10, 40);
+		assertEquals(1, found.size());
+		assertSame(matching, found.get(0).template());
+		assertEquals(2, matcher.search(gallery, 2, 0).size());
+		assertTrue(matcher.search(gallery, 0, 0).isEmpty());
+		assertTrue(matcher.search(Collections.emptyList(), 10, 0).isEmpty());
+	}
+	@Test public void searchPruning() {
+		List<FingerprintTemplate> gallery = Arrays.asList(
+			FingerprintTemplateTest.nonmatching(),
+			FingerprintTemplateTest.matching(),
+			FingerprintTemplateTest.probe(),
+			FingerprintTemplateTest.nonmatching(),
+			FingerprintTemplateTest.matching());
+		FingerprintMatcher matcher = new FingerprintMatcher().index(gallery.get(2));
+		List<Double> scores = new ArrayList<>();
+		for (FingerprintTemplate candidate : gallery)
+			scores.add(matcher.match(candidate));
+		for (int limit = 1; limit <= gallery.size(); ++limit) {
+			// 순차 검색에서는 앞쪽 후보의 점수가 cutoff가 되어 뒤쪽 후보를 가지치기한다.
+			List<FingerprintMatch> found = matcher.search(gallery, limit, 0, Runnable::run);
+			assertEquals(limit, found.size());
+			assertEquals(2, found.get(0).index());
+			for (FingerprintMatch match : found)
+				assertEquals(scores.get(match.index()), match.score(), 0);
+		}
+	}
+	@Test public void searchCascade() {
+		FingerprintCascade cascade = new FingerprintCascade();
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe()).cascade(cascade);
+		List<FingerprintTemplate> gallery = new ArrayList<>();
+		for (int i = 0; i < 10; ++i)
+			gallery.add(i == 7 ? FingerprintTemplateTest.matching() : FingerprintTemplateTest.nonmatching());
+		List<FingerprintMatch> found = matcher.search(gallery, 10, 40);
+		assertEquals(1, found.size());
+		assertEquals(7, found.get(0).index());
+		assertEquals(matcher.match(gallery.get(7)), found.get(0).score(), 0);
+		assertEquals(10, cascade.screened());
+		assertEquals(9, cascade.rejected());
+		assertEquals(1, cascade.passed());
+		assertEquals(1, cascade.hits());
+		cascade.reset();
+		assertEquals(0, cascade.screened());
+	}
+	@Test public void cascadePruning() {
+		FingerprintCascade cascade = new FingerprintCascade();
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe()).cascade(cascade);
+		// executor의 parallelism이 1이면 slice는 [0, 2), [2, 5), [5, 7), [7, 10)이다. 각 slice는 일치하는 후보로 시작한다.
+		List<FingerprintTemplate> gallery = new ArrayList<>();
+		for (int i = 0; i < 10; ++i)
+			gallery.add(i == 0 || i == 2 || i == 5 || i == 7 ? FingerprintTemplateTest.matching() : new FingerprintTemplate());
+		ForkJoinPool executor = new ForkJoinPool(1);
+		try {
+			matcher.search(gallery, 10, 0, executor);
+			assertEquals(0, cascade.pruned());
+			assertEquals(6, cascade.rejected());
+			assertEquals(4, cascade.passed());
+			cascade.reset();
+			// 앞의 후보가 결과를 채우면 나머지 후보는 가지치기되며 탈락으로 세지 않는다.
+			matcher.search(gallery, 1, 0, executor);
+			assertEquals(10, cascade.screened());
+			assertEquals(6, cascade.pruned());
+			assertEquals(0, cascade.rejected());
+			assertEquals(4, cascade.passed());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	@Test(expected = IllegalArgumentException.class) public void cascadeBudget() {
+		new FingerprintCascade().roots(0);
+	}
+	@Test public void batch() {
+		List<FingerprintMatcher> probes = Arrays.asList(
+			new FingerprintMatcher().index(FingerprintTemplateTest.probe()),
+			new FingerprintMatcher().index(FingerprintTemplateTest.probeIso()),
+			new FingerprintMatcher().index(FingerprintTemplateTest.nonmatching()));
+		List<FingerprintTemplate> gallery = new ArrayList<>();
+		for (int i = 0; i < 12; ++i)
+			gallery.add(Arrays.asList(FingerprintTemplateTest.matching(), FingerprintTemplateTest.matchingIso(), FingerprintTemplateTest.nonmatchingIso()).get(i % 3));
+		double[][] scores = FingerprintMatcher.matchBatch(probes, gallery);
+		assertEquals(3, scores.length);
+		for (int i = 0; i < probes.size(); ++i)
+			for (int j = 0; j < gallery.size(); ++j)
+				assertEquals(probes.get(i).match(gallery.get(j)), scores[i][j], 0);
+		List<List<FingerprintMatch>> found = FingerprintMatcher.searchBatch(probes, gallery, 3, 5);
+		assertEquals(3, found.size());
+		for (int i = 0; i < probes.size(); ++i) {
+			List<FingerprintMatch> single = probes.get(i).search(gallery, 3, 5);
+			assertEquals(single.size(), found.get(i).size());
+			for (int j = 0; j < single.size(); ++j) {
+				assertEquals(single.get(j).index(), found.get(i).get(j).index());
+				assertEquals(single.get(j).score(), found.get(i).get(j).score(), 0);
+			}
+		}
+	}
+	@Test public void reverseSearch() {
+		List<FingerprintMatcher> gallery = new ArrayList<>();
+		for (int i = 0; i < 10; ++i)
+			gallery.add(new FingerprintMatcher().index(i == 4 ? FingerprintTemplateTest.matching() : FingerprintTemplateTest.nonmatching()));
+		FingerprintTemplate probe = FingerprintTemplateTest.probe();
+		List<FingerprintMatch> found = FingerprintMatcher.reverseSearch(probe, gallery, 3, 40);
+		assertEquals(1, found.size());
+		assertEquals(4, found.get(0).index());
+		assertNotNull(found.get(0).template());
+		assertEquals(gallery.get(4).match(probe), found.get(0).score(), 0);
+		List<FingerprintMatch> all = FingerprintMatcher.reverseSearch(probe, gallery, 20, 0, Runnable::run);
+		assertEquals(10, all.size());
+		for (FingerprintMatch match : all)
+			assertEquals(gallery.get(match.index()).match(probe), match.score(), 0);
+	}
+	@Test public void verify() {
+		List<FingerprintTemplate> templates = Arrays.asList(
+			FingerprintTemplateTest.probe(), FingerprintTemplateTest.matching(), FingerprintTemplateTest.nonmatching(),
+			FingerprintTemplateTest.probeIso(), FingerprintTemplateTest.matchingIso(), FingerprintTemplateTest.nonmatchingIso());
+		for (FingerprintTemplate probe : templates) {
+			FingerprintMatcher matcher = new FingerprintMatcher().index(probe);
+			for (FingerprintTemplate candidate : templates)
+				assertEquals(matcher.match(candidate), FingerprintMatcher.verify(probe, candidate), 0);
+		}
+		assertTrue(FingerprintMatcher.verify(FingerprintTemplateTest.probe(), FingerprintTemplateTest.matching()) >= 40);
+	}
+	@Test public void profile() {
+		FingerprintTemplate probe = FingerprintTemplateTest.probe();
+		FingerprintMatcher matcher = new FingerprintMatcher().index(probe);
+		double matching = matcher.match(FingerprintTemplateTest.matching());
+		double nonmatching = matcher.match(FingerprintTemplateTest.nonmatching());
+		// balanced profile는 기본 설정과 같은 점수를 낸다.
+		matcher.profile(FingerprintMatchingProfile.balanced);
+		assertEquals(matching, matcher.match(FingerprintTemplateTest.matching()), 0);
+		assertEquals(nonmatching, matcher.match(FingerprintTemplateTest.nonmatching()), 0);
+		// index 후에 바꾼 profile도 적용된다.
+		matcher.profile(FingerprintMatchingProfile.fast);
+		assertTrue(matcher.match(FingerprintTemplateTest.matching()) >= 40);
+		assertTrue(matcher.match(FingerprintTemplateTest.nonmatching()) <= nonmatching);
+		FingerprintMatcher fast = new FingerprintMatcher().profile(FingerprintMatchingProfile.fast).index(probe);
+		assertEquals(matcher.match(FingerprintTemplateTest.nonmatching()), fast.match(FingerprintTemplateTest.nonmatching()), 0);
+		// template에 저장된 것과 다른 root edge는 매칭할 때 만든다.
+		FingerprintMatchingProfile custom = FingerprintMatchingProfile.balanced.withRootEdgeLength(30).withLookups(3000).withNeighbors(5).withRoots(30);
+		assertEquals(30, custom.roots());
+		assertEquals(3000, custom.lookups());
+		assertEquals(30, custom.rootEdgeLength());
+		assertEquals(5, custom.neighbors());
+		matcher.profile(custom);
+		assertTrue(matcher.match(FingerprintTemplateTest.matching()) >= 40);
+		matcher.profile(null);
+		assertEquals(matching, matcher.match(FingerprintTemplateTest.matching()), 0);
+	}
+	@Test public void rootEdgeCache() {
+		FingerprintMatchingProfile uncached = FingerprintMatchingProfile.balanced.withRootEdgeCache(false);
+		assertTrue(FingerprintMatchingProfile.balanced.rootEdgeCache());
+		assertFalse(uncached.rootEdgeCache());
+		// 다른 설정을 바꿔도 유지된다.
+		assertFalse(uncached.withRoots(30).withLookups(1000).withAdaptiveRoots(5, 1).rootEdgeCache());
+		// cache를 쓰지 않아도 점수는 같다.
+		FingerprintMatcher cached = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		FingerprintMatcher computed = new FingerprintMatcher().profile(uncached).index(FingerprintTemplateTest.probe());
+		for (FingerprintTemplate candidate : Arrays.asList(FingerprintTemplateTest.matching(), FingerprintTemplateTest.nonmatching(), FingerprintTemplateTest.matchingIso())) {
+			assertEquals(cached.match(candidate), computed.match(candidate), 0);
+			assertEquals(cached.match(candidate), computed.match(candidate, new FingerprintMatchSession()), 0);
+		}
+	}
+	@Test(expected = IllegalArgumentException.class) public void profileNeighbors() {
+		FingerprintMatchingProfile.balanced.withNeighbors(10);
+	}
+	@Test public void adaptiveRoots() {
+		FingerprintMatchSession session = new FingerprintMatchSession();
+		assertEquals(0, session.roots());
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		double matching = matcher.match(FingerprintTemplateTest.matching(), session);
+		matcher.match(FingerprintTemplateTest.nonmatching(), session);
+		int full = session.roots();
+		assertTrue(full > 0 && full <= FingerprintMatchingProfile.balanced.roots());
+		FingerprintMatchingProfile adaptive = FingerprintMatchingProfile.balanced.withAdaptiveRoots(10, 5);
+		assertEquals(10, adaptive.patience());
+		assertEquals(5, adaptive.margin(), 0);
+		matcher.profile(adaptive);
+		// 압도적인 root가 있는 matching pair는 점수가 같다.
+		assertEquals(matching, matcher.match(FingerprintTemplateTest.matching(), session), 0);
+		assertEquals(matching, matcher.match(FingerprintTemplateTest.matching(), Runnable::run), 0);
+		matcher.match(FingerprintTemplateTest.nonmatching(), session);
+		assertTrue(session.roots() < full);
+	}
+	@Test public void adaptiveSearch() {
+		List<FingerprintTemplate> gallery = Arrays.asList(
+			FingerprintTemplateTest.nonmatching(),
+			FingerprintTemplateTest.matching(),
+			FingerprintTemplateTest.nonmatchingIso(),
+			FingerprintTemplateTest.probeIso(),
+			FingerprintTemplateTest.matchingIso(),
+			FingerprintTemplateTest.probe());
+		FingerprintMatchingProfile[] profiles = {
+			FingerprintMatchingProfile.balanced.withAdaptiveRoots(2, 1),
+			FingerprintMatchingProfile.balanced.withAdaptiveRoots(7, 5),
+			FingerprintMatchingProfile.balanced.withAdaptiveRoots(3, 1000)
+		};
+		// cutoff로 잘린 root가 실패로 세어지면 검색은 match()보다 일찍 중단되어 점수가 달라진다.
+		for (FingerprintMatchingProfile profile : profiles) {
+			for (FingerprintTemplate probe : gallery) {
+				FingerprintMatcher matcher = new FingerprintMatcher().profile(profile).index(probe);
+				List<Double> scores = new ArrayList<>();
+				for (FingerprintTemplate candidate : gallery)
+					scores.add(matcher.match(candidate));
+				for (int limit = 1; limit <= gallery.size(); ++limit)
+					for (FingerprintMatch match : matcher.search(gallery, limit, 0, Runnable::run))
+						assertEquals(scores.get(match.index()), match.score(), 0);
+				for (int i = 0; i < gallery.size(); ++i) {
+					double score = scores.get(i);
+					for (double threshold : new double[] { score / 2, score, score + 1 }) {
+						assertEquals(score >= threshold, matcher.matches(gallery.get(i), threshold));
+						List<FingerprintMatch> found = matcher.search(gallery, gallery.size(), threshold, Runnable::run);
+						assertEquals(scores.stream().filter(s -> s >= threshold).count(), found.size());
+						for (FingerprintMatch match : found)
+							assertEquals(scores.get(match.index()), match.score(), 0);
+					}
+				}
+			}
+		}
+	}
+	@Test public void searchExecutor() {
+		FingerprintMatcher matcher = new FingerprintMatcher().index(FingerprintTemplateTest.probe());
+		List<FingerprintTemplate> gallery = new ArrayList<>();
+		for (int i = 0; i < 10; ++i)
+			gallery.add(i == 7 ? FingerprintTemplateTest.matching() : FingerprintTemplateTest.nonmatching());
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<FingerprintMatch> parallel = matcher.search(gallery, 3, 0, executor);
+			List<FingerprintMatch> sequential = matcher.search(gallery, 3, 0, Runnable::run);
+			assertEquals(3, parallel.size());
+			assertSame(gallery.get(7), parallel.get(0).template());
+			for (int i = 0; i < parallel.size(); ++i) {
+				assertSame(sequential.get(i).template(), parallel.get(i).template());
+				assertEquals(sequential.get(i).score(), parallel.get(i).score(), 0);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
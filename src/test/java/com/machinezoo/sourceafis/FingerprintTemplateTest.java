@@ -2,7 +2,12 @@
 package com.machinezoo.sourceafis;
 
 import static org.junit.Assert.*;
+import java.awt.image.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import javax.imageio.*;
 import org.apache.commons.io.*;
 import org.junit.*;
 import com.machinezoo.noexception.*;
@@ -40,10 +45,10 @@ public class FingerprintTemplateTest {
 	@Test public void readImage_bmp() {
 		readImage_validate(io.readImage(load("probe.bmp")));
 	}
-	private void readImage_validate(DoubleMap map) {
+	private void readImage_validate(FloatMap map) {
 		assertEquals(388, map.width);
 		assertEquals(374, map.height);
-		DoubleMap reference = io.readImage(load("probe.png"));
+		FloatMap reference = io.readImage(load("probe.png"));
 		double delta = 0, max = -1, min = 1;
 		for (int x = 0; x < map.width; ++x) {
 			for (int y = 0; y < map.height; ++y) {
@@ -56,6 +61,77 @@ public class FingerprintTemplateTest {
 		assertTrue(min < 0.1);
 		assertTrue(delta / (map.width * map.height) < 0.01);
 	}
+	@Test public void parallel() {
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			for (String name : new String[] { "probe.png", "matching.png", "nonmatching.png" }) {
+				assertEquals(new FingerprintTemplate().create(load(name)).serialize(), new FingerprintTemplate().executor(executor).create(load(name)).serialize());
+				// dpi가 다르면 이미지 크기 조정도 병렬로 처리된다.
+				assertEquals(new FingerprintTemplate().dpi(700).create(load(name)).serialize(), new FingerprintTemplate().dpi(700).executor(executor).create(load(name)).serialize());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	@Test public void grayscale() {
+		for (String name : new String[] { "probe.png", "matching.png" }) {
+			BufferedImage image = Exceptions.sneak().get(() -> ImageIO.read(new ByteArrayInputStream(load(name))));
+			int width = image.getWidth();
+			int height = image.getHeight();
+			int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+			// 앞쪽에 여분이 있는 buffer에서 position부터 읽는다.
+			ByteBuffer buffer = ByteBuffer.allocateDirect(width * height + 3);
+			buffer.position(3);
+			byte[] gray = new byte[width * height];
+			for (int i = 0; i < pixels.length; ++i) {
+				assertEquals(pixels[i] & 0xff, (pixels[i] >> 8) & 0xff);
+				gray[i] = (byte)pixels[i];
+				buffer.put(3 + i, gray[i]);
+			}
+			String expected = new FingerprintTemplate().create(load(name)).serialize();
+			assertEquals(expected, new FingerprintTemplate().create(gray, width, height).serialize());
+			assertEquals(expected, new FingerprintTemplate().create(buffer, width, height).serialize());
+			assertEquals(3, buffer.position());
+		}
+	}
+	@Test(expected = IllegalArgumentException.class) public void grayscale_tooSmall() {
+		new FingerprintTemplate().create(new byte[99], 10, 10);
+	}
+	@Test(expected = IllegalArgumentException.class) public void grayscale_overflow() {
+		// int로 곱하면 65536 * 65536은 0이 된다.
+		new FingerprintTemplate().create(ByteBuffer.wrap(new byte[100]), 65536, 65536);
+	}
+	@Test(expected = IllegalArgumentException.class) public void image_overflow() {
+		new FingerprintImage(new byte[100], 65536, 65536);
+	}
+	@Test public void floatDrift() {
+		// 중간 이미지를 float로 저장해도 double로 추출했던 template과 거의 같아야 한다.
+		// double-*.json은 double 맵을 쓰던 버전으로 추출한 template이다.
+		FingerprintTemplate[] current = { probe(), matching(), nonmatching() };
+		FingerprintTemplate[] reference = new FingerprintTemplate[current.length];
+		String[] names = { "probe", "matching", "nonmatching" };
+		for (int i = 0; i < current.length; ++i) {
+			reference[i] = new FingerprintTemplate().deserialize(new String(load("double-" + names[i] + ".json"), StandardCharsets.UTF_8));
+			Minutia[] drifted = current[i].immutable.minutiae();
+			Minutia[] original = reference[i].immutable.minutiae();
+			assertEquals(original.length, drifted.length, 0.05 * original.length);
+			int kept = 0;
+			for (Minutia minutia : drifted)
+				for (Minutia other : original)
+					if (minutia.type == other.type && minutia.position.minus(other.position).lengthSq() <= 4 && Angle.distance(minutia.direction, other.direction) <= 0.1) {
+						++kept;
+						break;
+					}
+			assertTrue(kept >= 0.9 * original.length);
+		}
+		for (int i = 0; i < current.length; ++i)
+			for (int j = 0; j < current.length; ++j)
+				if (i != j) {
+					double drifted = new FingerprintMatcher().index(current[i]).match(current[j]);
+					double original = new FingerprintMatcher().index(reference[i]).match(reference[j]);
+					assertEquals(original, drifted, 0.1 * original + 1);
+				}
+	}
 	@Test public void json_roundTrip() {
 		TemplateBuilder tb = new TemplateBuilder();
 		tb.size = new Cell(800, 600);
@@ -65,9 +141,9 @@ public class FingerprintTemplateTest {
 		};
 		t.immutable = new ImmutableTemplate(tb);
 		t = new FingerprintTemplate().deserialize(t.serialize());
-		assertEquals(2, t.immutable.minutiae.length);
-		Minutia a = t.immutable.minutiae[0];
-		Minutia b = t.immutable.minutiae[1];
+		assertEquals(2, t.immutable.minutiae().length);
+		Minutia a = t.immutable.minutiae()[0];
+		Minutia b = t.immutable.minutiae()[1];
 		assertEquals(new Cell(100, 200), a.position);
 		assertEquals(Math.PI, a.direction, 0.0000001);
 		assertEquals(MinutiaType.BIFURCATION, a.type);
@@ -75,7 +151,110 @@ public class FingerprintTemplateTest {
 		assertEquals(0.5 * Math.PI, b.direction, 0.0000001);
 		assertEquals(MinutiaType.ENDING, b.type);
 	}
-	private static byte[] load(String name) {
+	@Test public void binary_roundTrip() {
+		TemplateBuilder tb = new TemplateBuilder();
+		tb.size = new Cell(800, 600);
+		tb.minutiae = new Minutia[] {
+			new Minutia(new Cell(100, 200), Math.PI, MinutiaType.BIFURCATION),
+			new Minutia(new Cell(300, 400), 0.5 * Math.PI, MinutiaType.ENDING)
+		};
+		t.immutable = new ImmutableTemplate(tb);
+		t = new FingerprintTemplate().fromBinary(ByteBuffer.wrap(t.toBinary()));
+		assertEquals(new Cell(800, 600), t.immutable.size);
+		assertEquals(2, t.immutable.minutiae().length);
+		Minutia a = t.immutable.minutiae()[0];
+		Minutia b = t.immutable.minutiae()[1];
+		assertEquals(new Cell(100, 200), a.position);
+		assertEquals(Math.PI, a.direction, 0);
+		assertEquals(MinutiaType.BIFURCATION, a.type);
+		assertEquals(new Cell(300, 400), b.position);
+		assertEquals(0.5 * Math.PI, b.direction, 0);
+		assertEquals(MinutiaType.ENDING, b.type);
+	}
+	@Test public void binary_sameAsJson() {
+		FingerprintTemplate original = probe();
+		byte[] binary = original.toBinary();
+		assertTrue(binary.length < original.serialize().length() / 4);
+		ByteBuffer buffer = ByteBuffer.allocate(2 * binary.length).order(ByteOrder.BIG_ENDIAN);
+		buffer.put(binary).put(binary).flip();
+		FingerprintTemplate first = new FingerprintTemplate().fromBinary(buffer);
+		FingerprintTemplate second = new FingerprintTemplate().fromBinary(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+		assertEquals(original.serialize(), first.serialize());
+		assertEquals(original.serialize(), second.serialize());
+		FingerprintMatcher matcher = new FingerprintMatcher().index(matching());
+		assertEquals(matcher.match(original), matcher.match(first), 0);
+	}
+	@Test public void binary_edgeTable() {
+		FingerprintTemplate original = probe();
+		byte[] binary = original.toBinary(true);
+		assertTrue(binary.length > original.toBinary().length);
+		FingerprintTemplate restored = new FingerprintTemplate().fromBinary(ByteBuffer.wrap(binary));
+		assertEquals(original.serialize(), restored.serialize());
+		NeighborEdge[][] expected = original.immutable.edges();
+		NeighborEdge[][] actual = restored.immutable.edges();
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; ++i) {
+			assertEquals(expected[i].length, actual[i].length);
+			for (int j = 0; j < expected[i].length; ++j) {
+				assertEquals(expected[i][j].neighbor, actual[i][j].neighbor);
+				assertEquals(expected[i][j].length, actual[i][j].length);
+				assertEquals(expected[i][j].referenceAngle, actual[i][j].referenceAngle, 0);
+				assertEquals(expected[i][j].neighborAngle, actual[i][j].neighborAngle, 0);
+			}
+		}
+		FingerprintMatcher matcher = new FingerprintMatcher().index(matching());
+		assertEquals(matcher.match(original), matcher.match(restored), 0);
+	}
+	@Test public void binary_largeEdgeTable() {
+		// 65535개보다 많은 edge도 저장할 수 있어야 한다.
+		int count = 7500;
+		TemplateBuilder tb = new TemplateBuilder();
+		tb.size = new Cell(2000, 1500);
+		tb.minutiae = new Minutia[count];
+		for (int i = 0; i < count; ++i)
+			tb.minutiae[i] = new Minutia(new Cell(20 * (i % 100), 20 * (i / 100)), i * 0.001, i % 3 == 0 ? MinutiaType.BIFURCATION : MinutiaType.ENDING);
+		tb.edges = new NeighborEdge[count][];
+		for (int i = 0; i < count; ++i) {
+			tb.edges[i] = new NeighborEdge[Parameters.edgeTableNeighbors];
+			for (int j = 0; j < tb.edges[i].length; ++j)
+				tb.edges[i][j] = new NeighborEdge(tb.minutiae, i, (i + j + 1) % count);
+		}
+		FingerprintTemplate original = new FingerprintTemplate(new ImmutableTemplate(tb));
+		FingerprintTemplate restored = new FingerprintTemplate().fromBinary(ByteBuffer.wrap(original.toBinary(true)));
+		assertEquals(original.serialize(), restored.serialize());
+		NeighborEdge[][] actual = restored.immutable.edges();
+		assertEquals(count, actual.length);
+		for (int i = 0; i < count; ++i) {
+			assertEquals(Parameters.edgeTableNeighbors, actual[i].length);
+			for (int j = 0; j < actual[i].length; ++j) {
+				assertEquals(tb.edges[i][j].neighbor, actual[i][j].neighbor);
+				assertEquals(tb.edges[i][j].length, actual[i][j].length);
+			}
+		}
+	}
+	private static ByteBuffer corruptStar(int minutia, int delta) {
+		ByteBuffer binary = ByteBuffer.wrap(probe().toBinary(true)).order(ByteOrder.LITTLE_ENDIAN);
+		int at = BinaryTemplate.starOffset(binary.getInt(16), binary.getInt(20)) + 4 * minutia;
+		binary.putInt(at, binary.getInt(at) + delta);
+		return binary;
+	}
+	@Test(expected = IllegalArgumentException.class) public void binary_rejectsShiftedStars() {
+		new FingerprintTemplate().fromBinary(corruptStar(0, 1));
+	}
+	@Test(expected = IllegalArgumentException.class) public void binary_rejectsOverlappingStars() {
+		// 앞 star의 끝보다 앞에서 시작하는 star
+		new FingerprintTemplate().fromBinary(corruptStar(2, -Parameters.edgeTableNeighbors - 1));
+	}
+	@Test(expected = IllegalArgumentException.class) public void binary_rejectsJunk() {
+		new FingerprintTemplate().fromBinary(ByteBuffer.wrap(new byte[100]));
+	}
+	@Test(expected = IllegalArgumentException.class) public void binary_rejectsTruncated() {
+		byte[] binary = probe().toBinary();
+		new FingerprintTemplate().fromBinary(ByteBuffer.wrap(binary, 0, binary.length - 1));
+	}
+	static byte[] load(String name) {
 		return Exceptions.sneak().get(() -> {
 			try (InputStream input = FingerprintTemplateTest.class.getResourceAsStream("/com/machinezoo/sourceafis/" + name)) {
 				return IOUtils.toByteArray(input);
@@ -0,0 +1,56 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import static org.junit.Assert.*;
+import java.util.*;
+import org.junit.*;
+
+public class PairQueueTest {
+	private static MinutiaPair pair(int distance) {
+		MinutiaPair pair = new MinutiaPair();
+		pair.distance = distance;
+		return pair;
+	}
+	@Test public void empty() {
+		PairQueue queue = new PairQueue();
+		assertTrue(queue.isEmpty());
+		assertNull(queue.peek());
+	}
+	@Test public void order() {
+		PairQueue queue = new PairQueue();
+		for (int distance : new int[] { 5, 1, 4, 2, 3 })
+			queue.add(pair(distance));
+		assertEquals(5, queue.size());
+		for (int distance = 1; distance <= 5; ++distance) {
+			assertEquals(distance, queue.peek().distance);
+			assertEquals(distance, queue.remove().distance);
+		}
+		assertTrue(queue.isEmpty());
+	}
+	@Test public void sameAsPriorityQueue() {
+		// 같은 distance의 pair도 PriorityQueue와 같은 순서로 나와야 한다.
+		Random random = new Random(0);
+		PairQueue queue = new PairQueue();
+		PriorityQueue<MinutiaPair> reference = new PriorityQueue<>(Comparator.comparing(p -> p.distance));
+		for (int i = 0; i < 10_000; ++i) {
+			if (reference.isEmpty() || random.nextInt(3) > 0) {
+				MinutiaPair pair = pair(random.nextInt(20));
+				queue.add(pair);
+				reference.add(pair);
+			} else
+				assertSame(reference.remove(), queue.remove());
+		}
+		while (!reference.isEmpty())
+			assertSame(reference.remove(), queue.remove());
+		assertTrue(queue.isEmpty());
+	}
+	@Test public void clear() {
+		PairQueue queue = new PairQueue();
+		queue.add(pair(1));
+		queue.add(pair(2));
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		queue.add(pair(3));
+		assertEquals(3, queue.remove().distance);
+	}
+}
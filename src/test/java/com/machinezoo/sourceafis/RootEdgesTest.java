@@ -0,0 +1,41 @@
+// Part of SourceAFIS: https://sourceafis.machinezoo.com
+package com.machinezoo.sourceafis;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class RootEdgesTest {
+	@Test public void empty() {
+		assertEquals(0, ImmutableTemplate.empty.rootEdges().count);
+	}
+	@Test public void order() {
+		ImmutableTemplate template = FingerprintTemplateTest.probe().immutable;
+		RootEdges edges = template.rootEdges();
+		assertTrue(edges.count > 0);
+		assertTrue(edges.count <= Parameters.maxRootEdgeLookups);
+		// 긴 edge가 모두 짧은 edge보다 앞에 온다.
+		boolean shortEdges = false;
+		for (int i = 0; i < edges.count; ++i) {
+			if (edges.lengths[i] < Parameters.minRootEdgeLength)
+				shortEdges = true;
+			else
+				assertFalse(shortEdges);
+			EdgeShape shape = new EdgeShape(template, edges.pairs[i] >>> 16, edges.pairs[i] & 0xffff);
+			assertEquals(shape.length, edges.lengths[i]);
+			assertEquals(shape.referenceAngle, edges.referenceAngles[i], 0);
+			assertEquals(shape.neighborAngle, edges.neighborAngles[i], 0);
+			assertEquals(EdgeHash.hashShape(shape.length, shape.referenceAngle, shape.neighborAngle), edges.keys[i]);
+		}
+	}
+	@Test public void reuse() {
+		RootEdges edges = new RootEdges();
+		edges.build(FingerprintTemplateTest.probe().immutable);
+		edges.build(FingerprintTemplateTest.nonmatching().immutable);
+		RootEdges fresh = new RootEdges(FingerprintTemplateTest.nonmatching().immutable);
+		assertEquals(fresh.count, edges.count);
+		for (int i = 0; i < fresh.count; ++i) {
+			assertEquals(fresh.pairs[i], edges.pairs[i]);
+			assertEquals(fresh.keys[i], edges.keys[i]);
+		}
+	}
+}